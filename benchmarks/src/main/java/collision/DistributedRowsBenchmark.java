@@ -0,0 +1,41 @@
+package collision;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//DistributedRows, the flat-array row kernel of the headless DistributedGui run, all n rows on one rank
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class DistributedRowsBenchmark {
+    private static final int SENT = 2; //x, y, the default exchange
+
+    @Param({"1000", "4000"})
+    int n;
+
+    @Param({"5", "20", "80"})
+    double density;
+
+    private double[] flat;
+    private double[] localUpdate;
+    private DistributedRows kernel;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        ParticleStore s = Scenario.store(n, density);
+        flat = Scenario.flat(s);
+        localUpdate = new double[n * SENT];
+        kernel = new DistributedRows(2.0, 0.8, TimeStep.fromConfig());
+        kernel.particles(s.mass, s.charge);
+    }
+
+    @Benchmark
+    public double[] forceRows() {
+        kernel.step(flat, n, 0, n, 1.0, localUpdate, SENT, null);
+        return localUpdate;
+    }
+}
@@ -0,0 +1,48 @@
+package collision;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//ParallelEngine (ParallelGui) on its own thread pool: the whole step (forces, move, contacts) and the contacts alone
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ParallelStepBenchmark {
+    @Param({"1000", "4000"})
+    int n;
+
+    @Param({"1", "4"})
+    int threads;
+
+    @Param({"5", "20", "80"})
+    double density;
+
+    private ParallelEngine engine;
+
+    //Every iteration starts from the same state, the pool is started outside the measurement
+    @Setup(Level.Iteration)
+    public void reset() {
+        engine = new ParallelEngine(Scenario.store(n, density), threads, Scenario.WIDTH, Scenario.HEIGHT);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        engine.close();
+    }
+
+    @Benchmark
+    public ParticleStore step() {
+        engine.step();
+        return engine.particles();
+    }
+
+    @Benchmark
+    public ParticleStore resolveOverlaps() {
+        engine.resolveOverlaps();
+        return engine.particles();
+    }
+}
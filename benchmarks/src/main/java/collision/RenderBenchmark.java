@@ -0,0 +1,73 @@
+package collision;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+//One frame of the panels into a 1280 x 800 image: RasterRenderer stamping every particle, its DensityMap level of
+//detail and setColor/fillOval per particle
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Djava.awt.headless=true"})
+public class RenderBenchmark {
+    private static final int WIDTH = 1280, HEIGHT = 800;
+
+    @Param({"100000", "1000000"})
+    int n;
+
+    @Param({"1.5", "6"})
+    double radius;
+
+    @Param({"raster", "density", "java2d"})
+    String renderer;
+
+    private Snapshot snapshot;
+    private RasterRenderer raster;
+    private BufferedImage image;
+    private Graphics2D gfx;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ParticleStore s = Scenario.store(n, n / 100.0);
+        snapshot = new Snapshot();
+        snapshot.copyFrom(s, 0);
+        for (int i = 0; i < n; i++) {
+            snapshot.x[i] *= (double) WIDTH / Scenario.WIDTH;
+            snapshot.y[i] *= (double) HEIGHT / Scenario.HEIGHT;
+            snapshot.radius[i] = radius;
+        }
+        //raster never switches to the heat map, density always does
+        Config.set("renderer", renderer);
+        Config.set("lodThreshold", String.valueOf(Integer.MAX_VALUE));
+        raster = new RasterRenderer(Runtime.getRuntime().availableProcessors());
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        gfx = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        gfx.dispose();
+    }
+
+    @Benchmark
+    public Object frame() {
+        if (!renderer.equals("java2d")) {
+            return raster.render(snapshot, WIDTH, HEIGHT);
+        }
+        gfx.setColor(Color.WHITE);
+        gfx.fillRect(0, 0, WIDTH, HEIGHT);
+        Snapshot s = snapshot;
+        for (int i = 0; i < s.size; i++) {
+            gfx.setColor(s.charge[i] >= 1 ? Color.BLUE : Color.RED);
+            double r = s.radius[i];
+            gfx.fillOval((int) (s.x[i] - r), (int) (s.y[i] - r), (int) (2 * r), (int) (2 * r));
+        }
+        return image;
+    }
+}
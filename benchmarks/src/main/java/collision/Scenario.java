@@ -0,0 +1,47 @@
+package collision;
+
+import java.util.Random;
+
+//Seeded starting states for the benchmarks. density is particles per 100 x 100 units: the particles are
+//spread over a centred square of n / density such cells, clamped to the 800 x 600 box, so a high density
+//means many contacts and many pairs inside the cutoff.
+final class Scenario {
+    static final int WIDTH = 800, HEIGHT = 600;
+    private static final long SEED = 42;
+    private static final double RADIUS = 6;
+
+    private Scenario() {
+    }
+
+    static ParticleStore store(int n, double density) {
+        double side = 100 * Math.sqrt(n / density);
+        double w = Math.min(side, WIDTH - 4 * RADIUS);
+        double h = Math.min(side, HEIGHT - 4 * RADIUS);
+        double x0 = (WIDTH - w) / 2, y0 = (HEIGHT - h) / 2;
+
+        Random r = new Random(SEED);
+        ParticleStore s = new ParticleStore(n);
+        for (int i = 0; i < n; i++) {
+            double px = x0 + r.nextDouble() * w;
+            double py = y0 + r.nextDouble() * h;
+            int q = r.nextInt(-5, 6) + 1;
+            double angle = 2 * Math.PI * r.nextDouble();
+            double speed = r.nextDouble(-3.0, 3.0);
+            s.add(px, py, speed * Math.cos(angle), speed * Math.sin(angle), RADIUS, q);
+        }
+        return s;
+    }
+
+    //x, y, dx, dy rows as DistributedRows keeps them
+    static double[] flat(ParticleStore s) {
+        int n = s.size();
+        double[] flat = new double[n * DistributedRows.FIELDS];
+        for (int i = 0; i < n; i++) {
+            flat[i * DistributedRows.FIELDS] = s.x[i];
+            flat[i * DistributedRows.FIELDS + 1] = s.y[i];
+            flat[i * DistributedRows.FIELDS + 2] = s.dx[i];
+            flat[i * DistributedRows.FIELDS + 3] = s.dy[i];
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,34 @@
+package collision;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//One SequentialEngine step (Gui): walls, cutoff forces and pair collisions on a single thread
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SequentialStepBenchmark {
+    @Param({"1000", "4000"})
+    int n;
+
+    @Param({"5", "20", "80"})
+    double density;
+
+    private SequentialEngine engine;
+
+    //Every iteration starts from the same state, otherwise a long run drifts towards its own density
+    @Setup(Level.Iteration)
+    public void reset() {
+        engine = new SequentialEngine(Scenario.store(n, density), Scenario.WIDTH, Scenario.HEIGHT);
+    }
+
+    @Benchmark
+    public ParticleStore step() {
+        engine.step();
+        return engine.particles();
+    }
+}
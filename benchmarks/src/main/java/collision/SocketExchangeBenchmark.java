@@ -0,0 +1,67 @@
+package collision;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+//The per-step position exchange (allgatherv of n x, y rows) between two SocketCommunicator ranks in this JVM,
+//over loopback. Rank 1 runs on its own thread and answers every allgatherv until rank 0 sends NaN.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SocketExchangeBenchmark {
+    private static final int SENT = 2;
+
+    @Param({"1000", "4000", "16000"})
+    int n;
+
+    @Param("47300")
+    int port;
+
+    private SocketCommunicator comm;
+    private Thread partner;
+    private int[] counts, displs;
+    private double[] local, exchanged;
+
+    @Setup(Level.Trial)
+    public void start() {
+        int[] bounds = DistributedGui.rowBounds(n, 2, false);
+        counts = new int[2];
+        displs = new int[2];
+        for (int r = 0; r < 2; r++) {
+            counts[r] = (bounds[r + 1] - bounds[r]) * SENT;
+            displs[r] = bounds[r] * SENT;
+        }
+        local = new double[counts[0]];
+        exchanged = new double[n * SENT];
+
+        partner = new Thread(() -> {
+            SocketCommunicator other = SocketCommunicator.connect(1, 2, "", port);
+            double[] own = new double[counts[1]];
+            double[] all = new double[n * SENT];
+            do {
+                other.allgatherv(own, 0, counts[1], all, counts, displs);
+            } while (!Double.isNaN(all[0]));
+            other.close();
+        }, "exchange-rank-1");
+        partner.start();
+        comm = SocketCommunicator.connect(0, 2, "", port);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        local[0] = Double.NaN;
+        comm.allgatherv(local, 0, counts[0], exchanged, counts, displs);
+        comm.close();
+        partner.join();
+    }
+
+    @Benchmark
+    public double[] allgatherv() {
+        comm.allgatherv(local, 0, counts[0], exchanged, counts, displs);
+        return exchanged;
+    }
+}
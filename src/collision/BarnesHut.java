@@ -0,0 +1,287 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Barnes-Hut quadtree for the uncut, softened Coulomb force F = k * qi * qj * r / (r^2 + soft)^1.5.
+//Every node keeps its total charge (monopole) and its dipole around the node centre. Mixed charges
+//can cancel to a zero monopole, so the dipole term is what keeps far neutral clusters accurate.
+//A node is opened when size / distance >= theta, theta = 0 gives the exact direct sum.
+public class BarnesHut {
+    private static final int LEAF_SIZE = 8;
+    private static final int BITS = 20; //Morton bits per axis, index gets the remaining 23 bits
+    private static final int MAX_PARTICLES = 1 << 23;
+
+    private final double theta;
+    private final double k;
+    private final double softening;
+
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private double[] qs = new double[0];
+    private long[] keys = new long[0];
+    private int[] order = new int[0];
+    private RadixSort sort; //on the executor of the last build
+    private ExecutorService sortExecutor;
+    private int sortTasks;
+    private Node root;
+
+    private static class Node {
+        final double cx, cy, half;
+        final int lo, hi; //range in the Morton-sorted order array
+        Node[] children; //null for leaves
+        double q;
+        double px, py; //dipole around (cx, cy)
+
+        Node(double cx, double cy, double half, int lo, int hi) {
+            this.cx = cx;
+            this.cy = cy;
+            this.half = half;
+            this.lo = lo;
+            this.hi = hi;
+        }
+    }
+
+    public BarnesHut(double theta, double k, double softening) {
+        if (theta < 0) throw new IllegalArgumentException("theta must not be negative");
+        this.theta = theta;
+        this.k = k;
+        this.softening = softening;
+    }
+
+    //Adds the force on each of the first n particles to fx/fy. Tree build and traversal are split
+    //over the executor when one is given, otherwise everything runs on the calling thread.
+    public void compute(double[] x, double[] y, double[] q, int n, double[] fx, double[] fy,
+                        ExecutorService executor, int tasks) {
+        compute(x, y, q, n, 0, n, fx, fy, executor, tasks);
+    }
+
+    //Same as above but only evaluates the particles from..to, the tree still holds all n
+    public void compute(double[] x, double[] y, double[] q, int n, int from, int to, double[] fx, double[] fy,
+                        ExecutorService executor, int tasks) {
+        if (n > MAX_PARTICLES) throw new IllegalArgumentException("Barnes-Hut supports up to " + MAX_PARTICLES + " particles");
+        if (n == 0) return;
+        if (executor == null) tasks = 1;
+        build(x, y, q, n, executor, tasks);
+
+        int chunk = (to - from + tasks - 1) / tasks;
+        List<Runnable> work = new ArrayList<>();
+        for (int t = 0; t < tasks; t++) {
+            int start = from + t * chunk;
+            int end = Math.min(start + chunk, to);
+            if (start >= end) break;
+            work.add(() -> {
+                Node[] stack = new Node[4 * (BITS + 2)];
+                for (int i = start; i < end; i++) {
+                    accumulate(i, stack, fx, fy);
+                }
+            });
+        }
+        run(work, executor);
+    }
+
+    private void build(double[] x, double[] y, double[] q, int n, ExecutorService executor, int tasks) {
+        xs = x;
+        ys = y;
+        qs = q;
+        double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double half = Math.max(maxX - minX, maxY - minY) / 2 + 1e-9;
+        double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2;
+
+        //Sort by Morton key, every node then owns a contiguous range of the order array
+        if (keys.length < n) {
+            keys = new long[n];
+            order = new int[n];
+        }
+        double scale = ((1 << BITS) - 1) / (2 * half);
+        double ox = cx - half, oy = cy - half;
+        int chunk = (n + tasks - 1) / tasks;
+        List<Runnable> work = new ArrayList<>();
+        for (int t = 0; t < tasks; t++) {
+            int start = t * chunk;
+            int end = Math.min(start + chunk, n);
+            work.add(() -> {
+                for (int i = start; i < end; i++) {
+                    long mx = (long) ((xs[i] - ox) * scale);
+                    long my = (long) ((ys[i] - oy) * scale);
+                    keys[i] = (interleave(mx) | interleave(my) << 1) << (63 - 2 * BITS) | i;
+                }
+            });
+        }
+        run(work, executor);
+        //The keys are in index order, so a stable sort of the Morton bits alone orders them completely
+        if (sort == null || executor != sortExecutor || tasks != sortTasks) {
+            sort = new RadixSort(executor, tasks);
+            sortExecutor = executor;
+            sortTasks = tasks;
+        }
+        sort.sort(keys, n, 63 - 2 * BITS, 64);
+        int indexMask = (1 << (63 - 2 * BITS)) - 1;
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & indexMask);
+        }
+
+        //Split the top levels here until there are enough subtrees, then build those in parallel
+        root = new Node(cx, cy, half, 0, n);
+        List<Node> top = new ArrayList<>();
+        List<Node> frontier = new ArrayList<>();
+        frontier.add(root);
+        int bit = BITS - 1;
+        while (frontier.size() < 4 * tasks && bit >= 0) {
+            List<Node> next = new ArrayList<>();
+            boolean splitAny = false;
+            for (Node node : frontier) {
+                if (node.hi - node.lo > LEAF_SIZE) {
+                    split(node, bit);
+                    top.add(node);
+                    for (Node child : node.children) {
+                        if (child != null) next.add(child);
+                    }
+                    splitAny = true;
+                } else {
+                    next.add(node);
+                }
+            }
+            frontier = next;
+            bit--;
+            if (!splitAny) break;
+        }
+        int subtreeBit = bit;
+        work.clear();
+        for (Node node : frontier) {
+            work.add(() -> buildSubtree(node, subtreeBit));
+        }
+        run(work, executor);
+
+        //Moments of the top levels, deepest first so children are ready
+        for (int i = top.size() - 1; i >= 0; i--) {
+            moments(top.get(i));
+        }
+    }
+
+    private void buildSubtree(Node node, int bit) {
+        if (node.hi - node.lo > LEAF_SIZE && bit >= 0) {
+            split(node, bit);
+            for (Node child : node.children) {
+                if (child != null) buildSubtree(child, bit - 1);
+            }
+        }
+        moments(node);
+    }
+
+    //Children are the four quadrants, found by the two key bits of this level
+    private void split(Node node, int bit) {
+        node.children = new Node[4];
+        int shift = 63 - 2 * BITS + 2 * bit;
+        int start = node.lo;
+        double h = node.half / 2;
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int end = start;
+            while (end < node.hi && ((keys[end] >>> shift) & 3) == quadrant) end++;
+            if (end > start) {
+                double qx = node.cx + ((quadrant & 1) == 0 ? -h : h);
+                double qy = node.cy + ((quadrant & 2) == 0 ? -h : h);
+                node.children[quadrant] = new Node(qx, qy, h, start, end);
+            }
+            start = end;
+        }
+    }
+
+    private void moments(Node node) {
+        double q = 0, px = 0, py = 0;
+        if (node.children == null) {
+            for (int s = node.lo; s < node.hi; s++) {
+                int j = order[s];
+                q += qs[j];
+                px += qs[j] * (xs[j] - node.cx);
+                py += qs[j] * (ys[j] - node.cy);
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child == null) continue;
+                q += child.q;
+                px += child.px + child.q * (child.cx - node.cx);
+                py += child.py + child.q * (child.cy - node.cy);
+            }
+        }
+        node.q = q;
+        node.px = px;
+        node.py = py;
+    }
+
+    private void accumulate(int i, Node[] stack, double[] fx, double[] fy) {
+        double xi = xs[i], yi = ys[i];
+        double ex = 0, ey = 0;
+        double theta2 = theta * theta;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            double rx = xi - node.cx;
+            double ry = yi - node.cy;
+            double r2 = rx * rx + ry * ry;
+            double size = 2 * node.half;
+
+            if (size * size < theta2 * r2) {
+                //Far node: monopole plus dipole expansion around the node centre
+                double d2 = r2 + softening;
+                double inv = 1.0 / Math.sqrt(d2);
+                double inv3 = inv / d2;
+                double inv5 = inv3 / d2;
+                double pr = node.px * rx + node.py * ry;
+                ex += node.q * rx * inv3 + 3 * pr * rx * inv5 - node.px * inv3;
+                ey += node.q * ry * inv3 + 3 * pr * ry * inv5 - node.py * inv3;
+            } else if (node.children == null) {
+                for (int s = node.lo; s < node.hi; s++) {
+                    int j = order[s];
+                    if (j == i) continue;
+                    double dx = xi - xs[j];
+                    double dy = yi - ys[j];
+                    double d2 = dx * dx + dy * dy + softening;
+                    double inv3 = 1.0 / (d2 * Math.sqrt(d2));
+                    ex += qs[j] * dx * inv3;
+                    ey += qs[j] * dy * inv3;
+                }
+            } else {
+                for (Node child : node.children) {
+                    if (child != null) stack[top++] = child;
+                }
+            }
+        }
+        fx[i] += k * qs[i] * ex;
+        fy[i] += k * qs[i] * ey;
+    }
+
+    //Spreads the bits of v so there is a zero between each of them
+    private static long interleave(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    private static void run(List<Runnable> work, ExecutorService executor) {
+        if (executor == null || work.size() <= 1) {
+            for (Runnable r : work) r.run();
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable r : work) {
+            futures.add(executor.submit(r));
+        }
+        for (Future<?> f : futures) {
+            try { f.get(); } catch (Exception e) { throw new RuntimeException(e); }
+        }
+    }
+}
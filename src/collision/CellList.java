@@ -0,0 +1,177 @@
+package collision;
+
+import java.util.Arrays;
+
+//Uniform grid for finding neighbours inside a cutoff without testing every pair.
+//Particles are binned with a counting sort, so the indices inside every cell stay in ascending order.
+public class CellList {
+    private static final int MAX_CELLS_PER_PARTICLE = 4;
+
+    private final double cellSize;
+    private final double cutoff;
+    private double size;
+    private double minX;
+    private double minY;
+    private int cols;
+    private int rows;
+    private int reach;
+    private int count;
+    private int[] cellStart = new int[1];
+    private int[] cellIndex = new int[0];
+    private int[] particleCell = new int[0];
+    private long[] marks = new long[0];
+    private double[] xs;
+    private double[] ys;
+
+    public CellList(double cutoff) {
+        this(cutoff, cutoff);
+    }
+
+    //cellSize smaller than the cutoff gives a tighter stencil at the cost of visiting more cells
+    public CellList(double cutoff, double cellSize) {
+        if (cutoff <= 0 || cellSize <= 0) {
+            throw new IllegalArgumentException("Cutoff and cell size must be positive");
+        }
+        this.cutoff = cutoff;
+        this.cellSize = cellSize;
+    }
+
+    //Bins the first n positions and keeps the arrays for the distance filter in higherNeighbours.
+    //The grid covers the bounding box of the particles, not the panel, so it works before layout.
+    public void build(double[] x, double[] y, int n) {
+        xs = x;
+        ys = y;
+        count = n;
+        if (n == 0) {
+            cols = rows = 1;
+            cellStart = new int[2];
+            return;
+        }
+
+        double maxX = x[0], maxY = y[0];
+        minX = x[0];
+        minY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+
+        //Grow the cells if the particles spread so far that the grid would be mostly empty
+        size = cellSize;
+        long maxCells = (long) MAX_CELLS_PER_PARTICLE * n + 16;
+        while ((long) ((maxX - minX) / size + 1) * (long) ((maxY - minY) / size + 1) > maxCells) {
+            size *= 2;
+        }
+        cols = (int) ((maxX - minX) / size) + 1;
+        rows = (int) ((maxY - minY) / size) + 1;
+        reach = (int) Math.ceil(cutoff / size);
+
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1) cellStart = new int[cells + 1];
+        if (cellIndex.length < n) {
+            cellIndex = new int[n];
+            particleCell = new int[n];
+            marks = new long[(n + 63) >>> 6];
+        }
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+
+        for (int i = 0; i < n; i++) {
+            int c = cellOf(x[i], y[i]);
+            particleCell[i] = c;
+            cellStart[c + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        //cellStart[c] is used as a write cursor and shifted back afterwards
+        for (int i = 0; i < n; i++) {
+            cellIndex[cellStart[particleCell[i]]++] = i;
+        }
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    public int cellOf(double px, double py) {
+        int cx = (int) ((px - minX) / size);
+        int cy = (int) ((py - minY) / size);
+        cx = Math.max(0, Math.min(cols - 1, cx));
+        cy = Math.max(0, Math.min(rows - 1, cy));
+        return cy * cols + cx;
+    }
+
+    //Writes into out every particle j > i within the cutoff of i, in ascending order,
+    //which is the order the brute-force j loop visits them. out must hold at least n entries.
+    //Not thread safe, the ordering uses a shared bitmap.
+    public int higherNeighbours(int i, int[] out) {
+        int found = candidates(i, out);
+        //Few candidates are sorted directly, many are put in order with a bitmap scan that costs n / 64 words
+        if ((long) found * 64 < count) {
+            Arrays.sort(out, 0, found);
+            return found;
+        }
+        ascending(out, found, i, marks, out, 0);
+        return found;
+    }
+
+    //Writes the found indices in candidates, all of them > i, to into[at..at + found) in ascending order. They are
+    //marked in bits, which covers every index and is all zero again afterwards, and read back from word i / 64 on.
+    //into may be candidates itself.
+    static void ascending(int[] candidates, int found, int i, long[] bits, int[] into, int at) {
+        for (int k = 0; k < found; k++) {
+            bits[candidates[k] >>> 6] |= 1L << candidates[k];
+        }
+        int written = at;
+        for (int w = (i + 1) >>> 6; w < bits.length && written < at + found; w++) {
+            long word = bits[w];
+            bits[w] = 0;
+            while (word != 0) {
+                into[written++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+    }
+
+    //Same as higherNeighbours but in cell order, safe to call from several threads after build
+    public int candidates(int i, int[] out) {
+        return collect(i, i + 1, out);
+    }
+
+    //Every j != i within the cutoff, lower and higher, in cell order. Thread safe after build
+    public int within(int i, int[] out) {
+        return collect(i, 0, out);
+    }
+
+    private int collect(int i, int lowest, int[] out) {
+        double px = xs[i], py = ys[i];
+        double cutoff2 = cutoff * cutoff;
+        int c = particleCell[i];
+        int cx = c % cols;
+        int cy = c / cols;
+        int found = 0;
+        for (int ny = Math.max(0, cy - reach); ny <= Math.min(rows - 1, cy + reach); ny++) {
+            for (int nx = Math.max(0, cx - reach); nx <= Math.min(cols - 1, cx + reach); nx++) {
+                int cell = ny * cols + nx;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int j = cellIndex[k];
+                    if (j < lowest || j == i) continue;
+                    double dx = xs[j] - px;
+                    double dy = ys[j] - py;
+                    if (dx * dx + dy * dy < cutoff2) out[found++] = j;
+                }
+            }
+        }
+        return found;
+    }
+
+    public double cutoff() {
+        return cutoff;
+    }
+
+    public int size() {
+        return count;
+    }
+}
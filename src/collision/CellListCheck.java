@@ -0,0 +1,52 @@
+package collision;
+
+//Steps the sequential engine with the cell list and with the brute-force loop (cellList=false) from the same
+//particles and stops at the first step where any value differs in any bit:
+//java collision.CellListCheck n cycles [seed=1] [width=800 height=600] [key=value ...]
+public class CellListCheck {
+    public static void main(String[] args) {
+        int n = Integer.parseInt(args[0]);
+        int cycles = Integer.parseInt(args[1]);
+        for (int a = 2; a < args.length; a++) {
+            int eq = args[a].indexOf('=');
+            Config.set(args[a].substring(0, eq), args[a].substring(eq + 1));
+        }
+        long seed = ParticleGenerator.seed();
+        double width = Config.real("width", SimulationEngine.DEFAULT_WIDTH);
+        double height = Config.real("height", SimulationEngine.DEFAULT_HEIGHT);
+        SimulationEngine cells = engine(true, n, seed, width, height);
+        SimulationEngine bruteForce = engine(false, n, seed, width, height);
+
+        for (int step = 1; step <= cycles; step++) {
+            cells.step();
+            bruteForce.step();
+            int i = firstDifference(cells.particles(), bruteForce.particles());
+            if (i >= 0) {
+                System.out.printf("Step %d: particle %d differs from cellList=false (seed %d)%n", step, i, seed);
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d particles, %d steps: identical to cellList=false (seed %d)%n", n, cycles, seed);
+    }
+
+    //The engine reads cellList when it is created
+    private static SimulationEngine engine(boolean cellList, int n, long seed, double width, double height) {
+        Config.set("cellList", Boolean.toString(cellList));
+        ParticleStore particles = new ParticleStore(n);
+        particles.setSeed(seed);
+        particles.addRandom(n, width, height);
+        return new SequentialEngine(particles, width, height);
+    }
+
+    private static int firstDifference(ParticleStore a, ParticleStore b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (Double.doubleToRawLongBits(a.x[i]) != Double.doubleToRawLongBits(b.x[i])
+                    || Double.doubleToRawLongBits(a.y[i]) != Double.doubleToRawLongBits(b.y[i])
+                    || Double.doubleToRawLongBits(a.dx[i]) != Double.doubleToRawLongBits(b.dx[i])
+                    || Double.doubleToRawLongBits(a.dy[i]) != Double.doubleToRawLongBits(b.dy[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,260 @@
+package collision;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+//Binary checkpoint of the particle state, written and read through FileChannel.map (-Dcollision.checkpoint=path,
+//-Dcollision.restart=path). Little endian: a HEADER byte header, then one column of n doubles per field.
+//Header: magic, version, header size, column count (int), n, step, seed (long), width, height, then since
+//version 2 simulated time and the last acceleration of the TimeStep (double).
+//Columns: x, y, dx, dy, mass, charge, radius. Particle i is at i * 8 in every column, so a distributed rank
+//writes its own particles straight into place and the state is never gathered on one rank.
+//A checkpoint goes to path.tmp first and is renamed once complete, a run that dies while writing keeps the last one.
+public class Checkpoint {
+    static final int MAGIC = 0x4E42434B; //"NBCK"
+    static final int VERSION = 2;
+    static final int HEADER = 72;
+    static final int X = 0, Y = 1, DX = 2, DY = 3, MASS = 4, CHARGE = 5, RADIUS = 6, COLUMNS = 7;
+
+    public final int count;
+    public final long step;
+    public final long seed; //ParticleStore seed for the next addRandom
+    public final double width, height;
+    public final double time, acceleration; //TimeStep state, 0 in version 1 files
+    private DoubleBuffer[] columns;
+
+    private Checkpoint(int count, long step, long seed, double width, double height, double time, double acceleration,
+                       DoubleBuffer[] columns) {
+        this.count = count;
+        this.step = step;
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.time = time;
+        this.acceleration = acceleration;
+        this.columns = columns;
+    }
+
+    //The checkpoint named by restart=path, null without one
+    public static Checkpoint restart() {
+        String path = Config.text("restart", null);
+        return path == null ? null : read(Path.of(path));
+    }
+
+    //True when checkpoint=path is set and step is due: every checkpointEvery steps (0 = never) and at the end
+    public static boolean due(long step, long cycles) {
+        if (Config.text("checkpoint", null) == null) return false;
+        int every = Config.integer("checkpointEvery", 0);
+        return step == cycles || (every > 0 && step % every == 0);
+    }
+
+    public static Checkpoint read(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER, channel.size()));
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) throw new IllegalArgumentException(path + " is not a checkpoint");
+            int version = header.getInt(4);
+            if (version > VERSION) {
+                throw new IllegalArgumentException(path + " has checkpoint version " + version + ", newest known is " + VERSION);
+            }
+            //Later versions may grow the header or add columns, the offsets come from the file
+            int headerSize = header.getInt(8);
+            int columnCount = header.getInt(12);
+            if (columnCount < COLUMNS) throw new IllegalArgumentException(path + " has only " + columnCount + " columns");
+            int n = Math.toIntExact(header.getLong(16));
+            DoubleBuffer[] columns = new DoubleBuffer[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++) {
+                columns[c] = map(channel, FileChannel.MapMode.READ_ONLY, headerSize, n, c).asDoubleBuffer();
+            }
+            double time = version >= 2 ? header.getDouble(56) : 0;
+            double acceleration = version >= 2 ? header.getDouble(64) : 0;
+            return new Checkpoint(n, header.getLong(24), header.getLong(32), header.getDouble(40), header.getDouble(48),
+                    time, acceleration, columns);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public double get(int column, int i) {
+        return columns[column].get(i);
+    }
+
+    //Drops the mapped columns once the state is loaded, the header fields stay
+    public void release() {
+        columns = null;
+    }
+
+    //A new store with every particle of the checkpoint
+    public ParticleStore particles() {
+        ParticleStore s = new ParticleStore(count);
+        s.resize(count);
+        columns[X].get(0, s.x, 0, count);
+        columns[Y].get(0, s.y, 0, count);
+        columns[DX].get(0, s.dx, 0, count);
+        columns[DY].get(0, s.dy, 0, count);
+        columns[MASS].get(0, s.mass, 0, count);
+        columns[CHARGE].get(0, s.charge, 0, count);
+        columns[RADIUS].get(0, s.radius, 0, count);
+        for (int i = 0; i < count; i++) {
+            s.invMass[i] = 1.0 / s.mass[i];
+        }
+        s.setSeed(seed);
+        return s;
+    }
+
+    //x, y, dx, dy rows with the given stride as DistributedGui keeps them
+    public void rows(double[] flat, int stride, double[] masses, double[] charges) {
+        for (int i = 0; i < count; i++) {
+            flat[i * stride] = get(X, i);
+            flat[i * stride + 1] = get(Y, i);
+            flat[i * stride + 2] = get(DX, i);
+            flat[i * stride + 3] = get(DY, i);
+            masses[i] = get(MASS, i);
+            charges[i] = get(CHARGE, i);
+        }
+    }
+
+    //Whole store of a shared-memory engine to checkpoint=path
+    public static void write(ParticleStore s, long step, TimeStep clock, double width, double height) {
+        int n = s.size();
+        Writer w = new Writer(null, n, step, s.seed(), width, height, clock.time(), clock.acceleration());
+        if (s.reordered()) {
+            //The file stays in id order, a restart starts again from slot i = particle i
+            for (int i = 0; i < n; i++) {
+                w.set(s.id[i], s.x[i], s.y[i], s.dx[i], s.dy[i], s.mass[i], s.charge[i], s.radius[i]);
+            }
+            w.finish();
+            return;
+        }
+        w.column(X, s.x, n);
+        w.column(Y, s.y, n);
+        w.column(DX, s.dx, n);
+        w.column(DY, s.dy, n);
+        w.column(MASS, s.mass, n);
+        w.column(CHARGE, s.charge, n);
+        w.column(RADIUS, s.radius, n);
+        w.finish();
+    }
+
+    //One checkpoint to checkpoint=path. Without a communicator the caller sets every particle. With one, rank 0
+    //creates the file, every rank then maps it and sets only its own particles, and finish() waits for all
+    //ranks before rank 0 renames it. The ranks need a shared file system that supports shared mappings.
+    //Java cannot unmap a buffer: finish() drops the references before the rename and a restart checkpoint
+    //release()s its own after loading, but where a mapped file cannot be replaced (Windows) the rename can still
+    //fail until the buffers are collected, so there checkpoint= should not name the restart= file.
+    public static class Writer {
+        private final Communicator comm;
+        private final Path path, tmp;
+        private MappedByteBuffer[] mapped = new MappedByteBuffer[COLUMNS];
+        private DoubleBuffer[] columns = new DoubleBuffer[COLUMNS];
+
+        public Writer(Communicator comm, int n, long step, long seed, double width, double height, double time,
+                      double acceleration) {
+            this.comm = comm;
+            this.path = Path.of(Config.text("checkpoint", "checkpoint.bin"));
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            boolean creator = comm == null || comm.rank() == 0;
+            try {
+                if (creator) {
+                    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+                        header.order(ByteOrder.LITTLE_ENDIAN);
+                        header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, HEADER).putInt(12, COLUMNS);
+                        header.putLong(16, n).putLong(24, step).putLong(32, seed);
+                        header.putDouble(40, width).putDouble(48, height);
+                        header.putDouble(56, time).putDouble(64, acceleration);
+                        //Mapping the columns also sizes the file before the other ranks open it
+                        mapColumns(channel, n);
+                    }
+                }
+                if (comm != null) {
+                    barrier(comm);
+                    if (!creator) {
+                        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                            mapColumns(channel, n);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void set(int i, double x, double y, double dx, double dy, double mass, double charge, double radius) {
+            columns[X].put(i, x);
+            columns[Y].put(i, y);
+            columns[DX].put(i, dx);
+            columns[DY].put(i, dy);
+            columns[MASS].put(i, mass);
+            columns[CHARGE].put(i, charge);
+            columns[RADIUS].put(i, radius);
+        }
+
+        //values[0..n) into column
+        public void column(int column, double[] values, int n) {
+            columns[column].put(0, values, 0, n);
+        }
+
+        //checkpointSync=true also flushes the pages to disk, otherwise a crash of the process is covered
+        //but a crash of the machine may lose the newest checkpoint. The writer cannot be used afterwards.
+        public void finish() {
+            if (Config.flag("checkpointSync", false)) {
+                for (MappedByteBuffer m : mapped) m.force();
+            }
+            mapped = null;
+            columns = null;
+            if (comm != null) barrier(comm);
+            if (comm == null || comm.rank() == 0) {
+                try {
+                    try {
+                        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        //No atomic rename on this file system, a crash during the replace can leave a partial checkpoint
+                        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void mapColumns(FileChannel channel, int n) throws IOException {
+            for (int c = 0; c < COLUMNS; c++) {
+                mapped[c] = map(channel, FileChannel.MapMode.READ_WRITE, HEADER, n, c);
+                columns[c] = mapped[c].asDoubleBuffer();
+            }
+        }
+    }
+
+    //A column is one mapping, so n is limited to Integer.MAX_VALUE / 8 particles
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, int headerSize, int n, int column)
+            throws IOException {
+        if (n > Integer.MAX_VALUE / Double.BYTES) throw new IllegalArgumentException(n + " particles do not fit a checkpoint column");
+        long bytes = (long) n * Double.BYTES;
+        MappedByteBuffer buffer = channel.map(mode, headerSize + column * bytes, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    //Returns once every rank has called it
+    private static void barrier(Communicator comm) {
+        int size = comm.size();
+        int[] counts = new int[size];
+        int[] displs = new int[size];
+        for (int r = 0; r < size; r++) {
+            counts[r] = 1;
+            displs[r] = r;
+        }
+        comm.allgatherv(new double[1], 0, 1, new double[size], counts, displs);
+    }
+}
@@ -0,0 +1,32 @@
+package collision;
+
+//Message passing of the distributed engine. DistributedGui, PipelinedExchange and StripSimulation only talk
+//through this, so the same code runs on MPJ Express (MpjCommunicator) or on plain sockets (SocketCommunicator).
+//Counts and offsets are in doubles, tags must not be negative (the collectives use those).
+//Failures are unchecked, a broken rank cannot be recovered from anyway.
+public interface Communicator {
+
+    int rank();
+
+    int size();
+
+    void bcast(double[] buf, int offset, int count, int root);
+
+    //Every rank gets the blocks of all ranks, block r is counts[r] doubles at displs[r] of recv
+    void allgatherv(double[] send, int sendOffset, int sendCount, double[] recv, int[] counts, int[] displs);
+
+    void send(double[] buf, int offset, int count, int dest, int tag);
+
+    void recv(double[] buf, int offset, int count, int source, int tag);
+
+    //buf must stay untouched until await() returns
+    Pending isend(double[] buf, int offset, int count, int dest, int tag);
+
+    Pending irecv(double[] buf, int offset, int count, int source, int tag);
+
+    void close();
+
+    interface Pending {
+        void await();
+    }
+}
@@ -0,0 +1,33 @@
+package collision;
+
+//Simulation switches read from system properties, for example -Dcollision.cellList=false
+//DistributedGui copies extra key=value program arguments into the same properties.
+public class Config {
+    private static final String PREFIX = "collision.";
+
+    private Config() {
+    }
+
+    public static String text(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static boolean flag(String key, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public static int integer(String key, int defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static double real(String key, double defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public static void set(String key, String value) {
+        System.setProperty(PREFIX + key, value);
+    }
+}
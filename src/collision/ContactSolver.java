@@ -0,0 +1,234 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Lock-free overlap and impulse resolution for ParallelGui.
+//1. Contacts (i < j, touching) are found in parallel through a cell list and listed in (i, j) order.
+//2. A greedy contact-graph colouring gives every contact the lowest colour not used yet by i or j,
+//   so no particle appears twice in one colour.
+//3. Colours are resolved one after another, the contacts of one colour in parallel without locks.
+//The contact list and colours do not depend on the threads, so the result is the same for any thread count.
+public class ContactSolver {
+    private static final int COLOURS = 64; //one bit per colour in the particle masks
+    private static final int SERIAL_BATCH = 512; //smaller colours are not worth a round trip through the pool
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final double restitution;
+
+    private CellList cells;
+    private int[][] found;
+    private int[][] threadContacts;
+    private int[] threadCount;
+    private int[] contacts = new int[0]; //pairs, contacts[2c] = i, contacts[2c + 1] = j
+    private int[] colourOf = new int[0];
+    private int[] ordered = new int[0]; //contact ids grouped by colour
+    private int[] colourStart = new int[COLOURS + 2];
+    private long[] masks = new long[0];
+    private final List<Callable<Void>> tasks = new ArrayList<>();
+    private ParticleStore store;
+    private VerletList list;
+    private int contactCount;
+
+    public ContactSolver(ExecutorService executor, int threads, double restitution) {
+        this.executor = executor;
+        this.threads = threads;
+        this.restitution = restitution;
+        this.found = new int[threads][0];
+        this.threadContacts = new int[threads][64];
+        this.threadCount = new int[threads];
+    }
+
+    public void resolve(ParticleStore s) {
+        resolve(s, null);
+    }
+
+    //Takes the contact candidates from list (neighbours=verlet) instead of a new cell list, list must be up to
+    //date for the current positions
+    public void resolve(ParticleStore s, VerletList list) {
+        store = s;
+        this.list = list;
+        int n = s.size();
+        if (n < 2) return;
+        findContacts(n);
+        colour(n);
+
+        //Colour COLOURS is the overflow bucket for contacts of particles that already used every colour
+        for (int c = 0; c < COLOURS; c++) {
+            resolveColour(colourStart[c], colourStart[c + 1]);
+        }
+        for (int p = colourStart[COLOURS]; p < colourStart[COLOURS + 1]; p++) {
+            resolveContact(ordered[p]);
+        }
+    }
+
+    public int contactCount() {
+        return contactCount;
+    }
+
+    private void findContacts(int n) {
+        double maxRadius = 0;
+        for (int i = 0; i < n; i++) maxRadius = Math.max(maxRadius, store.radius[i]);
+        double cutoff = Math.nextUp(2 * maxRadius);
+        if (list != null && list.cutoff() < cutoff) list = null;
+        if (list == null) {
+            if (cells == null || cells.cutoff() != cutoff) cells = new CellList(cutoff);
+            cells.build(store.x, store.y, n);
+        }
+
+        int chunk = (n + threads - 1) / threads;
+        tasks.clear();
+        for (int t = 0; t < threads; t++) {
+            final int tid = t;
+            final int start = t * chunk, end = Math.min(start + chunk, n);
+            tasks.add(() -> {
+                findContacts(tid, start, end);
+                return null;
+            });
+        }
+        invoke(tasks);
+
+        //Threads own ascending slices of i, so joining them in thread order keeps the (i, j) order
+        contactCount = 0;
+        for (int t = 0; t < threads; t++) contactCount += threadCount[t];
+        if (contacts.length < 2 * contactCount) {
+            contacts = new int[4 * contactCount];
+            colourOf = new int[2 * contactCount];
+            ordered = new int[2 * contactCount];
+        }
+        int at = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(threadContacts[t], 0, contacts, at, 2 * threadCount[t]);
+            at += 2 * threadCount[t];
+        }
+    }
+
+    private void findContacts(int tid, int start, int end) {
+        double[] x = store.x, y = store.y, radius = store.radius;
+        if (found[tid].length < store.size()) found[tid] = new int[store.size()];
+        int[] out = found[tid];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            //Both give the j > i in ascending order
+            int from = 0, m;
+            if (list != null) {
+                out = list.neighbours();
+                from = list.start(i);
+                m = list.end(i);
+            } else {
+                m = cells.candidates(i, out);
+                Arrays.sort(out, 0, m);
+            }
+            for (int k = from; k < m; k++) {
+                int j = out[k];
+                double dx = x[j] - x[i];
+                double dy = y[j] - y[i];
+                double dist = Math.sqrt(dx * dx + dy * dy);
+                if (dist > 0 && dist <= radius[i] + radius[j]) {
+                    if (2 * count + 2 > threadContacts[tid].length) {
+                        threadContacts[tid] = Arrays.copyOf(threadContacts[tid], 4 * count + 4);
+                    }
+                    threadContacts[tid][2 * count] = i;
+                    threadContacts[tid][2 * count + 1] = j;
+                    count++;
+                }
+            }
+        }
+        threadCount[tid] = count;
+    }
+
+    private void colour(int n) {
+        if (masks.length < n) masks = new long[store.capacity()];
+        Arrays.fill(colourStart, 0);
+        for (int c = 0; c < contactCount; c++) {
+            int i = contacts[2 * c], j = contacts[2 * c + 1];
+            long used = masks[i] | masks[j];
+            int colour = used == -1L ? COLOURS : Long.numberOfTrailingZeros(~used);
+            if (colour < COLOURS) {
+                masks[i] |= 1L << colour;
+                masks[j] |= 1L << colour;
+            }
+            colourOf[c] = colour;
+            colourStart[colour + 1]++;
+        }
+        for (int c = 0; c <= COLOURS; c++) colourStart[c + 1] += colourStart[c];
+        //Counting sort keeps the (i, j) order inside every colour
+        int[] cursor = Arrays.copyOf(colourStart, COLOURS + 1);
+        for (int c = 0; c < contactCount; c++) {
+            ordered[cursor[colourOf[c]]++] = c;
+            masks[contacts[2 * c]] = 0;
+            masks[contacts[2 * c + 1]] = 0;
+        }
+    }
+
+    private void resolveColour(int from, int to) {
+        if (to - from <= SERIAL_BATCH) {
+            for (int p = from; p < to; p++) resolveContact(ordered[p]);
+            return;
+        }
+        int chunk = (to - from + threads - 1) / threads;
+        tasks.clear();
+        for (int t = 0; t < threads; t++) {
+            final int start = from + t * chunk, end = Math.min(start + chunk, to);
+            if (start >= end) break;
+            tasks.add(() -> {
+                for (int p = start; p < end; p++) resolveContact(ordered[p]);
+                return null;
+            });
+        }
+        invoke(tasks);
+    }
+
+    //Same response as Gui.collide, with the positions left by the colours before this one
+    private void resolveContact(int c) {
+        ParticleStore s = store;
+        int i = contacts[2 * c], j = contacts[2 * c + 1];
+        double dx = s.x[j] - s.x[i];
+        double dy = s.y[j] - s.y[i];
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (dist <= 0 || dist > s.radius[i] + s.radius[j]) return;
+
+        double normalX = dx / dist;
+        double normalY = dy / dist;
+
+        double overlap = s.radius[i] + s.radius[j] - dist;
+        double separationX = normalX * (overlap / 2.0);
+        double separationY = normalY * (overlap / 2.0);
+
+        s.x[i] -= separationX;
+        s.y[i] -= separationY;
+        s.x[j] += separationX;
+        s.y[j] += separationY;
+
+        double relativeVelX = s.dx[j] - s.dx[i];
+        double relativeVelY = s.dy[j] - s.dy[i];
+        double relativeVelAlongNormal = relativeVelX * normalX + relativeVelY * normalY;
+        if (relativeVelAlongNormal > 0) return;
+
+        double impulseScalar = -(1 + restitution) * relativeVelAlongNormal;
+        impulseScalar /= (s.invMass[i] + s.invMass[j]);
+
+        double impulseX = impulseScalar * normalX;
+        double impulseY = impulseScalar * normalY;
+
+        s.dx[i] -= impulseX * s.invMass[i];
+        s.dy[i] -= impulseY * s.invMass[i];
+        s.dx[j] += impulseX * s.invMass[j];
+        s.dy[j] += impulseY * s.invMass[j];
+    }
+
+    private void invoke(List<Callable<Void>> work) {
+        try {
+            for (Future<Void> f : executor.invokeAll(work)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
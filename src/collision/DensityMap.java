@@ -0,0 +1,176 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Level of detail for RasterRenderer: with hundreds of thousands of particles every pixel is covered many times,
+//so instead of stamping discs it bins the particles into tile x tile pixel cells (count and net charge) and
+//paints the cells as a heat map. Brightness follows log(count), the colour goes from red to blue with the mean
+//charge of the cell. Binning is a parallel reduction: each thread fills its own grid from a slice of the
+//particles, then the grids are summed band by band. Only the binning still grows with n, one increment per
+//particle; everything after it depends on the screen size.
+class DensityMap {
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int POSITIVE = 0x0000FF, NEGATIVE = 0xFF0000;
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final int tile;
+    private final List<Callable<Void>> binTasks = new ArrayList<>();
+    private final List<Callable<Void>> sumTasks = new ArrayList<>();
+    private final List<Callable<Void>> paintTasks = new ArrayList<>();
+    private int[][] counts = new int[0][]; //per thread, counts[0] holds the sum after the reduction
+    private double[][] charges = new double[0][];
+    private int[][] bandRows = new int[0][]; //per band, the colours of one cell row
+    private final int[] bandMaxCount;
+    private final double[] bandMaxCharge;
+    private int columns, rows;
+    private int maxCount;
+    private double maxCharge;
+    private Snapshot snapshot;
+    private int[] pixels;
+    private int width, height;
+
+    DensityMap(ExecutorService executor, int threads, int tile) {
+        this.executor = executor;
+        this.threads = threads;
+        this.tile = Math.max(1, tile);
+        this.bandMaxCount = new int[threads];
+        this.bandMaxCharge = new double[threads];
+        for (int t = 0; t < threads; t++) {
+            final int part = t;
+            binTasks.add(() -> {
+                bin(part);
+                return null;
+            });
+            sumTasks.add(() -> {
+                sum(part);
+                return null;
+            });
+            paintTasks.add(() -> {
+                paint(part);
+                return null;
+            });
+        }
+    }
+
+    //Paints s into pixels, a w x h image in row order
+    void render(Snapshot s, int[] pixels, int w, int h) {
+        int c = (w + tile - 1) / tile, r = (h + tile - 1) / tile;
+        if (c != columns || r != rows || counts.length == 0) {
+            columns = c;
+            rows = r;
+            counts = new int[threads][c * r];
+            charges = new double[threads][c * r];
+            bandRows = new int[threads][c];
+        }
+        this.snapshot = s;
+        this.pixels = pixels;
+        this.width = w;
+        this.height = h;
+        invoke(binTasks);
+        invoke(sumTasks);
+        maxCount = 0;
+        maxCharge = 0;
+        for (int t = 0; t < threads; t++) {
+            maxCount = Math.max(maxCount, bandMaxCount[t]);
+            maxCharge = Math.max(maxCharge, bandMaxCharge[t]);
+        }
+        invoke(paintTasks);
+    }
+
+    private void bin(int t) {
+        int[] count = counts[t];
+        double[] charge = charges[t];
+        Arrays.fill(count, 0);
+        Arrays.fill(charge, 0);
+        Snapshot s = snapshot;
+        int from = (int) ((long) s.size * t / threads), to = (int) ((long) s.size * (t + 1) / threads);
+        for (int i = from; i < to; i++) {
+            double x = s.x[i], y = s.y[i];
+            if (x < 0 || y < 0 || x >= width || y >= height) continue;
+            int cell = ((int) y / tile) * columns + (int) x / tile;
+            count[cell]++;
+            charge[cell] += s.charge[i];
+        }
+    }
+
+    //Sums the other grids into grid 0 for the cell rows of band b and keeps the band's maxima
+    private void sum(int b) {
+        int from = rows * b / threads * columns, to = rows * (b + 1) / threads * columns;
+        int[] count = counts[0];
+        double[] charge = charges[0];
+        for (int t = 1; t < threads; t++) {
+            int[] other = counts[t];
+            double[] otherCharge = charges[t];
+            for (int cell = from; cell < to; cell++) {
+                count[cell] += other[cell];
+                charge[cell] += otherCharge[cell];
+            }
+        }
+        int most = 0;
+        double strongest = 0;
+        for (int cell = from; cell < to; cell++) {
+            if (count[cell] == 0) continue;
+            most = Math.max(most, count[cell]);
+            strongest = Math.max(strongest, Math.abs(charge[cell] / count[cell]));
+        }
+        bandMaxCount[b] = most;
+        bandMaxCharge[b] = strongest;
+    }
+
+    private void paint(int b) {
+        int top = Math.min(height, rows * b / threads * tile), bottom = Math.min(height, rows * (b + 1) / threads * tile);
+        int[] count = counts[0];
+        double[] charge = charges[0];
+        double logMax = Math.log1p(maxCount);
+        double chargeScale = maxCharge > 0 ? 0.5 / maxCharge : 0;
+        int[] row = bandRows[b];
+        for (int cy = top / tile; cy * tile < bottom; cy++) {
+            //One colour per cell, then copied into the tile rows of this cell row
+            for (int cx = 0; cx < columns; cx++) {
+                int cell = cy * columns + cx;
+                int k = count[cell];
+                if (k == 0) {
+                    row[cx] = BACKGROUND;
+                    continue;
+                }
+                double intensity = 0.25 + 0.75 * Math.log1p(k) / logMax;
+                double blue = 0.5 + charge[cell] / k * chargeScale;
+                row[cx] = shade(blue, intensity);
+            }
+            int pyTo = Math.min(bottom, (cy + 1) * tile);
+            for (int py = cy * tile; py < pyTo; py++) {
+                int offset = py * width;
+                for (int px = 0; px < width; px++) {
+                    pixels[offset + px] = row[px / tile];
+                }
+            }
+        }
+    }
+
+    //Mix of NEGATIVE and POSITIVE by the blue share, faded into the background by 1 - intensity
+    private static int shade(double blue, double intensity) {
+        int colour = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            double c = ((NEGATIVE >> shift) & 0xFF) * (1 - blue) + ((POSITIVE >> shift) & 0xFF) * blue;
+            double v = c * intensity + ((BACKGROUND >> shift) & 0xFF) * (1 - intensity);
+            colour |= (int) Math.round(v) << shift;
+        }
+        return colour;
+    }
+
+    private void invoke(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
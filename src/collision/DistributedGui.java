@@ -1,208 +1,314 @@
 package collision;
 
-import mpi.*;
 import javax.swing.*;
 import java.awt.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class DistributedGui extends JPanel {
-    private CopyOnWriteArrayList<Particle> particles;
+    //Rank 0 with the GUI: a copy of the state every snapshotEvery steps, painted by a 60 Hz timer
+    private SnapshotBuffer snapshots;
+    private Timer repaintTimer;
+    private RasterRenderer raster; //null with renderer=java2d
     private final double SOFTENING = 2.0;
     private final double restitution = 0.8;
     private int cycles;
     private boolean isShown;
+    private final Communicator comm;
     private int rank, size;
-    private static final int FIELDS = 6;
-
-    public DistributedGui(int n, int cycles, boolean isShown) throws MPIException {
+    static final int FIELDS = DistributedRows.FIELDS;
+    private double[] masses, charges; //never change, broadcast once
+    //forces=barnes-hut: every rank builds the quadtree over the whole state and evaluates its own rows
+    private final BarnesHut barnesHut = Config.text("forces", "cutoff").equals("barnes-hut")
+            ? new BarnesHut(Config.real("theta", 0.5), 200.0, SOFTENING) : null;
+    private final CellList collisionCells = new CellList(12.0);
+    //reorder=k, headless replicated run: every k steps all ranks sort the rows by the same Morton order, row i
+    //then holds particle ids[i] (null until the first reorder), checkpoint and trajectory go by id
+    private final int reorderEvery = MortonOrder.every();
+    private final MortonOrder morton = reorderEvery > 0 ? new MortonOrder(null, 1) : null;
+    private int[] ids;
+    //reorder targets, swapped with the live arrays like ParticleStore does, and the gather of positionsOnly runs
+    private double[] spareRows = new double[0], spareMasses = new double[0], spareCharges = new double[0];
+    private int[] spareIds = new int[0];
+    private double[] whole;
+    private int[] wholeCounts, wholeDispls;
+    private double[] xs, ys, qs, treeFx, treeFy;
+    private int[] neighbours;
+    private final ForceRow forceRow = ForceRow.create();
+    private final double[] velocity = new double[2]; //dxi, dyi while ForceRow walks a row
+    //Headless steps: forces, exchange (allgatherv or the rest of the pipeline, then scatter), output
+    //(checkpoint and trajectory). GUI steps: forces, gather, contacts, exchange, snapshot.
+    private static final int FORCES = 0, EXCHANGE = 1, OUTPUT = 2;
+    private static final int GATHER = 1, CONTACTS = 2, POSITIONS = 3, SNAPSHOT = 4;
+    private StepProfile profile;
+    //Headless replicated runs step by dt (TimeStep), every rank computes the same one. The GUI run keeps unit steps.
+    private final TimeStep clock = TimeStep.fromConfig();
+    private final StepProfile paintProfile = new StepProfile("distributed-gui", 0, "paint");
+
+    public DistributedGui(Communicator comm, int n, int cycles, boolean isShown) {
+        this.comm = comm;
         this.cycles = cycles;
         this.isShown = isShown;
 
-        rank = MPI.COMM_WORLD.Rank();
-        size = MPI.COMM_WORLD.Size();
+        rank = comm.rank();
+        size = comm.size();
 
 
         if (rank == 0 && isShown) {
-            particles = new CopyOnWriteArrayList<>();
+            snapshots = new SnapshotBuffer();
+            if (!Config.text("renderer", "raster").equals("java2d")) {
+                raster = new RasterRenderer(Runtime.getRuntime().availableProcessors());
+            }
             JFrame frame = new JFrame("Particles - Distributed");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             frame.setSize(800, 600); // initial size, can resize
             frame.setLocationRelativeTo(null);
             frame.add(this);
             frame.setVisible(true);
+            repaintTimer = new Timer(1000 / 60, e -> repaint());
+            repaintTimer.start();
         }
 
         if (isShown) {
             runGuiSimulation(n);
+        } else if (Config.text("decomposition", "replicated").equals("strips")) {
+            runStripSimulation(n);
         } else {
             runOptimizedSimulation(n);
         }
     }
 
-    private void runOptimizedSimulation(int n) throws MPIException {
+    //Every rank owns a strip of the box and only talks to its neighbours, see StripSimulation
+    private void runStripSimulation(int n) {
         long startTime = 0;
         if (rank == 0) startTime = System.currentTimeMillis();
 
-        int FIELDS = 6;
-        double[] flatCurrent = new double[n * FIELDS];
+        if (rank == 0 && Config.text("trajectory", null) != null) {
+            System.err.println("trajectory is ignored with decomposition=strips, no rank has all particles");
+        }
+        StripSimulation strips = new StripSimulation(comm, SOFTENING, restitution);
+        strips.run(n, cycles);
 
         if (rank == 0) {
-            Random rand = new Random();
-            for (int i = 0; i < n; i++) {
-                int x = rand.nextInt(750);
-                int y = rand.nextInt(550);
-                double radius = 6;
-                double velocity = 3.0;
-                int charge = rand.nextInt(-5, 6) + 1;
-                Color color = charge >= 0 ? Color.BLUE : Color.RED;
-                Particle p = new Particle(i, x, y, velocity, radius, color, charge);
-                flatCurrent[i * FIELDS + 0] = p.x;
-                flatCurrent[i * FIELDS + 1] = p.y;
-                flatCurrent[i * FIELDS + 2] = p.getDx();
-                flatCurrent[i * FIELDS + 3] = p.getDy();
-                flatCurrent[i * FIELDS + 4] = p.getMass();
-                flatCurrent[i * FIELDS + 5] = p.getCharge();
-            }
+            long endTime = System.currentTimeMillis();
+            System.out.println("Strip distributed simulation finished in " + (endTime - startTime) + " ms");
+            System.out.printf("Simulated time: %.2f in %d steps%n", strips.timeStep().time(), strips.timeStep().steps());
         }
+        comm.close();
+    }
+
+    private void runOptimizedSimulation(int n) {
+        long startTime = 0;
+        if (rank == 0) startTime = System.currentTimeMillis();
 
-        MPI.COMM_WORLD.Bcast(flatCurrent, 0, n * FIELDS, MPI.DOUBLE, 0);
+        Checkpoint restart = Checkpoint.restart();
+        if (restart != null) n = restart.count;
+        double[] flatCurrent = new double[n * FIELDS];
+        masses = new double[n];
+        charges = new double[n];
 
-        int chunkSize = (n + size - 1) / size;
-        int start = rank * chunkSize;
-        int end = Math.min(start + chunkSize, n);
+        //Every rank maps the checkpoint or generates the state itself, nothing is broadcast
+        if (restart != null) {
+            restart.rows(flatCurrent, FIELDS, masses, charges);
+            restart.release();
+        } else {
+            generate(flatCurrent, n, sharedSeed(false));
+        }
+        DistributedRows rows = new DistributedRows(SOFTENING, restitution, clock);
+        rows.particles(masses, charges);
+
+        //Row i only visits j > i here, so equal row counts would leave rank 0 with most of the pairs
+        boolean triangular = !rows.barnesHut() && Config.text("partition", "triangular").equals("triangular");
+        int[] bounds = rowBounds(n, size, triangular);
+        int start = bounds[rank];
+        int end = bounds[rank + 1];
         int localCount = end - start;
 
-        //Setup for Allgatherv
+        //The rows only read x, y (and the charge) of the other particles, so by default only the positions
+        //are exchanged and every rank keeps the velocities of its own rows. positionsOnly=false sends dx, dy too.
+        int sent = exchangedFields();
         int[] sendCounts = new int[size];
         int[] displs = new int[size];
         for (int i = 0; i < size; i++) {
-            int s = i * chunkSize;
-            int e = Math.min(s + chunkSize, n);
-            sendCounts[i] = (e - s) * FIELDS;
-            displs[i] = s * FIELDS;
+            sendCounts[i] = (bounds[i + 1] - bounds[i]) * sent;
+            displs[i] = bounds[i] * sent;
         }
 
-        double[] localUpdate = new double[localCount * FIELDS];
-
-        for (int step = 0; step < cycles; step++) {
-            int panelWidth = 800, panelHeight = 600;
-
-
-            for (int i = start; i < end; i++) {
-                double xi = flatCurrent[i * FIELDS];
-                double yi = flatCurrent[i * FIELDS + 1];
-                double dxi = flatCurrent[i * FIELDS + 2];
-                double dyi = flatCurrent[i * FIELDS + 3];
-                double mi = flatCurrent[i * FIELDS + 4];
-                double qi = flatCurrent[i * FIELDS + 5];
-
-                for (int j = i + 1; j < n; j++) {
-                    if (i == j) continue;
-                    double xj = flatCurrent[j * FIELDS];
-                    double yj = flatCurrent[j * FIELDS + 1];
-                    double qj = flatCurrent[j * FIELDS + 5];
-                    double dx = xj - xi;
-                    double dy = yj - yi;
-                    double distSq = dx * dx + dy * dy + SOFTENING;
-                    double dist = Math.sqrt(distSq);
-                    if (dist > 200) continue;
-                    double invDist3 = 1.0 / (distSq * dist);
-                    double f = 200.0 * qi * qj * invDist3;
-                    double fx = f * dx / dist;
-                    double fy = f * dy / dist;
-                    dxi += fx / mi;
-                    dyi += fy / mi;
-                    if (dist < 12.0) {
-                        double nx = dx / dist;
-                        double ny = dy / dist;
-                        double overlap = 12.0 - dist;
-                        xi -= nx * (overlap / 2.0);
-                        yi -= ny * (overlap / 2.0);
-                    }
-                }
-                xi += dxi;
-                yi += dyi;
-
+        double[] localUpdate = new double[localCount * sent];
+        double[] exchanged = new double[n * sent];
+        //exchange=pipelined sends finished blocks of rows while the rest are computed
+        PipelinedExchange pipeline = null;
+        if (Config.text("exchange", "allgather").equals("pipelined")) {
+            pipeline = new PipelinedExchange(comm, bounds, Config.integer("blocks", 4), sent);
+        }
 
-                if (xi - 5 <= 0 || xi + 5 >= panelWidth) {
-                    dxi = -dxi * restitution;
-                    xi = Math.max(5.0, Math.min(panelWidth - 5.0, xi));
-                }
-                if (yi - 5 <= 0 || yi + 5 >= panelHeight) {
-                    dyi = -dyi * restitution;
-                    yi = Math.max(5.0, Math.min(panelHeight - 5.0, yi));
-                }
-                int localIdx = i - start;
-                localUpdate[localIdx * FIELDS + 0] = xi;
-                localUpdate[localIdx * FIELDS + 1] = yi;
-                localUpdate[localIdx * FIELDS + 2] = dxi;
-                localUpdate[localIdx * FIELDS + 3] = dyi;
-                localUpdate[localIdx * FIELDS + 4] = mi;
-                localUpdate[localIdx * FIELDS + 5] = qi;
+        //Rank 0 records the trajectory, the positions of all rows are there after every exchange
+        if (Config.flag("trajectoryVelocities", false) && sent != FIELDS) {
+            throw new IllegalArgumentException("trajectoryVelocities=true needs positionsOnly=false, "
+                    + "otherwise rank 0 only has the velocities of its own rows");
+        }
+        TrajectoryWriter trajectory = rank == 0 ? TrajectoryWriter.fromConfig() : null;
+        int first = restart != null ? (int) restart.step : 0;
+        if (restart != null) clock.restore(restart.time, restart.acceleration);
+        if (trajectory != null) trajectory.record(first, flatCurrent, FIELDS, n);
+        profile = new StepProfile("distributed", rank, "forces", "exchange", "output");
+        for (int step = first; step < cycles; step++) {
+            profile.step(step);
+            profile.begin();
+            //Counted in the forces phase
+            if (morton != null && (step - first) % reorderEvery == 0) {
+                flatCurrent = reorder(flatCurrent, n, bounds, sent);
+                rows.particles(masses, charges);
+                rows.invalidate();
             }
-
-            MPI.COMM_WORLD.Allgatherv(
-                    localUpdate, 0, localCount * FIELDS, MPI.DOUBLE,
-                    flatCurrent, 0, sendCounts, displs, MPI.DOUBLE
-            );
+            double dt = clock.next(comm, clock.adaptive() ? speed(flatCurrent, start, end) : 0, 6);
+            if (pipeline != null) pipeline.begin(exchanged);
+            rows.step(flatCurrent, n, start, end, dt, localUpdate, sent, pipeline);
+            profile.lap(FORCES);
+
+            if (pipeline != null) {
+                pipeline.finish(localUpdate, exchanged);
+            } else {
+                comm.allgatherv(localUpdate, 0, localCount * sent, exchanged, sendCounts, displs);
+            }
+            scatter(exchanged, sent, flatCurrent, n);
+            profile.lap(EXCHANGE);
+            //until=T: every rank has the same time, so all stop after the same step
+            int last = clock.reached() ? step + 1 : cycles;
+            if (Checkpoint.due(step + 1, last)) checkpoint(flatCurrent, n, start, end, step + 1);
+            if (trajectory != null) trajectory.record(step + 1, flatCurrent, FIELDS, n, ids);
+            profile.lap(OUTPUT);
+            if (last == step + 1) break;
         }
 
         if (rank == 0) {
             long endTime = System.currentTimeMillis();
             System.out.println("Optimized distributed simulation finished in " + (endTime - startTime) + " ms");
+            System.out.printf("Simulated time: %.2f in %d steps%n", clock.time(), clock.steps());
         }
+        if (trajectory != null) trajectory.close();
+        profile.report();
 
-        MPI.Finalize();
+        comm.close();
     }
 
+    //checkpoint=path: every rank writes only its rows start..end, the velocities of the other rows are not
+    //exchanged by default. ParticleGenerator is only used at the start, so there is no random state to keep.
+    private void checkpoint(double[] flatCurrent, int n, int start, int end, long step) {
+        Checkpoint.Writer writer = new Checkpoint.Writer(comm, n, step, 0, 800, 600, clock.time(),
+                clock.acceleration(comm));
+        for (int i = start; i < end; i++) {
+            writer.set(ids == null ? i : ids[i], flatCurrent[i * FIELDS], flatCurrent[i * FIELDS + 1],
+                    flatCurrent[i * FIELDS + 2], flatCurrent[i * FIELDS + 3], masses[i], charges[i], 6);
+        }
+        writer.finish();
+    }
 
-    private void runGuiSimulation(int n) throws MPIException {
+    //Sorts the rows, masses, charges and ids into Morton order. With positionsOnly every rank only has the
+    //velocities of its own rows, so the whole rows are gathered first. All ranks then hold the same state and
+    //compute the same order, the rows of a rank are afterwards other particles. Returns the new state, the
+    //passed array becomes the next spare.
+    private double[] reorder(double[] flatCurrent, int n, int[] bounds, int sent) {
+        double[] source = flatCurrent;
+        if (sent != FIELDS) {
+            if (whole == null) {
+                wholeCounts = new int[size];
+                wholeDispls = new int[size];
+                for (int r = 0; r < size; r++) {
+                    wholeCounts[r] = (bounds[r + 1] - bounds[r]) * FIELDS;
+                    wholeDispls[r] = bounds[r] * FIELDS;
+                }
+                whole = new double[n * FIELDS];
+            }
+            comm.allgatherv(flatCurrent, bounds[rank] * FIELDS, wholeCounts[rank], whole, wholeCounts, wholeDispls);
+            source = whole;
+        }
+        unpack(source, n);
+        int[] order = morton.order(xs, ys, n);
+        if (ids == null) {
+            ids = new int[n];
+            for (int i = 0; i < n; i++) ids[i] = i;
+        }
+        if (spareRows.length < n * FIELDS) {
+            spareRows = new double[n * FIELDS];
+            spareMasses = new double[n];
+            spareCharges = new double[n];
+            spareIds = new int[n];
+        }
+        double[] rows = spareRows, m = spareMasses, q = spareCharges;
+        int[] moved = spareIds;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            System.arraycopy(source, i * FIELDS, rows, k * FIELDS, FIELDS);
+            m[k] = masses[i];
+            q[k] = charges[i];
+            moved[k] = ids[i];
+        }
+        spareRows = flatCurrent;
+        spareMasses = masses;
+        spareCharges = charges;
+        spareIds = ids;
+        masses = m;
+        charges = q;
+        ids = moved;
+        return rows;
+    }
+
+
+    //Fastest own row, the other ranks pass theirs to TimeStep.next
+    private static double speed(double[] flatCurrent, int start, int end) {
+        double most = 0;
+        for (int i = start; i < end; i++) {
+            double dx = flatCurrent[i * FIELDS + 2], dy = flatCurrent[i * FIELDS + 3];
+            most = Math.max(most, dx * dx + dy * dy);
+        }
+        return Math.sqrt(most);
+    }
+
+    private void runGuiSimulation(int n) {
         long startTime = 0;
         if (rank == 0) startTime = System.currentTimeMillis();
 
         double[] flatCurrent = new double[n * FIELDS];
+        masses = new double[n];
+        charges = new double[n];
 
+        generate(flatCurrent, n, sharedSeed(true));
         if (rank == 0) {
-            Random rand = new Random(42);
-            particles.clear();
-            for (int i = 0; i < n; i++) {
-                int x = rand.nextInt(750);
-                int y = rand.nextInt(550);
-                double radius = 6;
-                double velocity = 3.0;
-                int charge = rand.nextInt(-5, 6) + 1;
-                Color color = charge >= 0 ? Color.BLUE : Color.RED;
-                Particle p = new Particle(i, x, y, velocity, radius, color, charge);
-                flatCurrent[i * FIELDS + 0] = p.x;
-                flatCurrent[i * FIELDS + 1] = p.y;
-                flatCurrent[i * FIELDS + 2] = p.getDx();
-                flatCurrent[i * FIELDS + 3] = p.getDy();
-                flatCurrent[i * FIELDS + 4] = p.getMass();
-                flatCurrent[i * FIELDS + 5] = p.getCharge();
-                particles.add(p);
-            }
+            snapshots.back().copyFrom(flatCurrent, FIELDS, charges, 6, n, 0);
+            snapshots.publish();
         }
-        MPI.COMM_WORLD.Bcast(flatCurrent, 0, n * FIELDS, MPI.DOUBLE, 0);
 
-        int chunkSize = (n + size - 1) / size;
-        int start = rank * chunkSize;
-        int end = Math.min(start + chunkSize, n);
+        int[] bounds = rowBounds(n, size, false);
+        int start = bounds[rank];
+        int end = bounds[rank + 1];
         int localCount = end - start;
 
 
+        //The collisions need the velocities of the neighbours, the next force phase only their positions
+        int sent = exchangedFields();
         int[] sendCounts = new int[size];
         int[] displs = new int[size];
+        int[] positionCounts = new int[size];
+        int[] positionDispls = new int[size];
         for (int i = 0; i < size; i++) {
-            int s = i * chunkSize;
-            int e = Math.min(s + chunkSize, n);
-            sendCounts[i] = (e - s) * FIELDS;
-            displs[i] = s * FIELDS;
+            sendCounts[i] = (bounds[i + 1] - bounds[i]) * FIELDS;
+            displs[i] = bounds[i] * FIELDS;
+            positionCounts[i] = (bounds[i + 1] - bounds[i]) * sent;
+            positionDispls[i] = bounds[i] * sent;
         }
 
         double[] localUpdate = new double[localCount * FIELDS];
+        double[] corrected = new double[localCount * FIELDS];
+        double[] positionUpdate = new double[localCount * sent];
+        double[] exchanged = new double[n * sent];
+        int snapshotEvery = Math.max(1, Config.integer("snapshotEvery", 1));
+        profile = new StepProfile("distributed", rank, "forces", "gather", "contacts", "exchange", "snapshot");
 
         for (int step = 0; step < cycles; step++) {
+            profile.step(step);
+            profile.begin();
 
             int panelWidth = getWidth();
             int panelHeight = getHeight();
@@ -210,31 +316,28 @@ public class DistributedGui extends JPanel {
 
             if (panelWidth <= 0) panelWidth = 800;
             if (panelHeight <= 0) panelHeight = 600;
+            unpack(flatCurrent, n);
+            if (barnesHut != null) treeForces(n, start, end);
 
             for (int i = start; i < end; i++) {
                 double xi = flatCurrent[i * FIELDS];
                 double yi = flatCurrent[i * FIELDS + 1];
                 double dxi = flatCurrent[i * FIELDS + 2];
                 double dyi = flatCurrent[i * FIELDS + 3];
-                double mi = flatCurrent[i * FIELDS + 4];
-                double qi = flatCurrent[i * FIELDS + 5];
-
-                for (int j = 0; j < n; j++) {
-                    if (i == j) continue;
-                    double xj = flatCurrent[j * FIELDS];
-                    double yj = flatCurrent[j * FIELDS + 1];
-                    double qj = flatCurrent[j * FIELDS + 5];
-                    double dx = xj - xi;
-                    double dy = yj - yi;
-                    double distSq = dx * dx + dy * dy + SOFTENING;
-                    double dist = Math.sqrt(distSq);
-                    if (dist > 200) continue;
-                    double invDist3 = 1.0 / (distSq * dist);
-                    double f = 200.0 * qi * qj * invDist3;
-                    double fx = f * dx / dist;
-                    double fy = f * dy / dist;
-                    dxi += fx / mi;
-                    dyi += fy / mi;
+                double mi = masses[i];
+                double qi = charges[i];
+
+                if (barnesHut != null) {
+                    dxi += treeFx[i] / mi;
+                    dyi += treeFy[i] / mi;
+                } else {
+                    //No contact distance here, the collisions are resolved on rank 0 afterwards
+                    velocity[0] = dxi;
+                    velocity[1] = dyi;
+                    forceRow.untilContact(xs, ys, qs, 0, i, xi, yi, 200.0 * qi, mi, 200, 0, SOFTENING, velocity);
+                    forceRow.untilContact(xs, ys, qs, i + 1, n, xi, yi, 200.0 * qi, mi, 200, 0, SOFTENING, velocity);
+                    dxi = velocity[0];
+                    dyi = velocity[1];
                 }
                 xi += dxi;
                 yi += dyi;
@@ -252,120 +355,233 @@ public class DistributedGui extends JPanel {
                 localUpdate[localIdx * FIELDS + 1] = yi;
                 localUpdate[localIdx * FIELDS + 2] = dxi;
                 localUpdate[localIdx * FIELDS + 3] = dyi;
-                localUpdate[localIdx * FIELDS + 4] = mi;
-                localUpdate[localIdx * FIELDS + 5] = qi;
             }
+            profile.lap(FORCES);
 
-            MPI.COMM_WORLD.Allgatherv(
-                    localUpdate, 0, localCount * FIELDS, MPI.DOUBLE,
-                    flatCurrent, 0, sendCounts, displs, MPI.DOUBLE
-            );
-
-
-            if (rank == 0) {
-                for (int i = 0; i < n; i++) {
-                    for (int j = i + 1; j < n; j++) {
-                        double xi = flatCurrent[i * FIELDS];
-                        double yi = flatCurrent[i * FIELDS + 1];
-                        double dxi = flatCurrent[i * FIELDS + 2];
-                        double dyi = flatCurrent[i * FIELDS + 3];
-                        double mi = flatCurrent[i * FIELDS + 4];
-
-                        double xj = flatCurrent[j * FIELDS];
-                        double yj = flatCurrent[j * FIELDS + 1];
-                        double dxj = flatCurrent[j * FIELDS + 2];
-                        double dyj = flatCurrent[j * FIELDS + 3];
-                        double mj = flatCurrent[j * FIELDS + 4];
-
-                        double dx = xj - xi;
-                        double dy = yj - yi;
-                        double dist = Math.sqrt(dx * dx + dy * dy + SOFTENING);
-
-                        if (dist < 12.0) {
-                            double nx = dx / dist;
-                            double ny = dy / dist;
-                            double overlap = 12.0 - dist;
-
-
-                            flatCurrent[i * FIELDS + 0] -= nx * (overlap / 2.0);
-                            flatCurrent[i * FIELDS + 1] -= ny * (overlap / 2.0);
-                            flatCurrent[j * FIELDS + 0] += nx * (overlap / 2.0);
-                            flatCurrent[j * FIELDS + 1] += ny * (overlap / 2.0);
-
-
-                            double dvx = dxj - dxi;
-                            double dvy = dyj - dyi;
-                            double relVel = dvx * nx + dvy * ny;
-                            if (relVel > 0) continue;
-                            double impulse = -(1 + restitution) * relVel;
-                            impulse /= (1.0 / mi + 1.0 / mj);
-                            double impulseX = impulse * nx;
-                            double impulseY = impulse * ny;
-
-                            flatCurrent[i * FIELDS + 2] -= impulseX / mi;
-                            flatCurrent[i * FIELDS + 3] -= impulseY / mi;
-                            flatCurrent[j * FIELDS + 2] += impulseX / mj;
-                            flatCurrent[j * FIELDS + 3] += impulseY / mj;
-                        }
-                    }
-                }
+            comm.allgatherv(localUpdate, 0, localCount * FIELDS, flatCurrent, sendCounts, displs);
+            profile.lap(GATHER);
+
+
+            //Every rank resolves the contacts of its own rows against the gathered state and the
+            //corrected rows are gathered again, instead of rank 0 doing all pairs and broadcasting
+            resolveContacts(flatCurrent, n, start, end, corrected);
+            profile.lap(CONTACTS);
+            System.arraycopy(corrected, 0, flatCurrent, start * FIELDS, localCount * FIELDS);
+            for (int k = 0; k < localCount; k++) {
+                System.arraycopy(corrected, k * FIELDS, positionUpdate, k * sent, sent);
             }
-            MPI.COMM_WORLD.Bcast(flatCurrent, 0, n * FIELDS, MPI.DOUBLE, 0);
-
-            //GUI update (only on rank 0)
-            if (rank == 0) {
-                SwingUtilities.invokeLater(() -> {
-                    particles.clear();
-                    for (int i = 0; i < n; i++) {
-                        double x = flatCurrent[i * FIELDS];
-                        double y = flatCurrent[i * FIELDS + 1];
-                        double dx = flatCurrent[i * FIELDS + 2];
-                        double dy = flatCurrent[i * FIELDS + 3];
-                        double mass = flatCurrent[i * FIELDS + 4];
-                        double charge = flatCurrent[i * FIELDS + 5];
-                        Color color = charge >= 0 ? Color.BLUE : Color.RED;
-                        Particle p = new Particle(i, x, y, 3.0, 6, color, charge);
-                        p.setDx(dx);
-                        p.setDy(dy);
-                        particles.add(p);
-                    }
-                    repaint();
-                });
-                try { Thread.sleep(16); } catch (InterruptedException ignored) {}
+            comm.allgatherv(positionUpdate, 0, localCount * sent, exchanged, positionCounts, positionDispls);
+            scatter(exchanged, sent, flatCurrent, n);
+            profile.lap(POSITIONS);
+
+            //Rank 0 only copies the state for the repaint timer, no rank ever waits for the GUI
+            if (rank == 0 && ((step + 1) % snapshotEvery == 0 || step == cycles - 1)) {
+                snapshots.back().copyFrom(flatCurrent, FIELDS, charges, 6, n, step + 1);
+                snapshots.publish();
             }
+            profile.lap(SNAPSHOT);
         }
         if (rank == 0) {
             long endTime = System.currentTimeMillis();
             System.out.println("Optimized distributed simulation finished in " + (endTime - startTime) + " ms");
+            StepProfile steps = profile;
             SwingUtilities.invokeLater(() -> {
+                repaintTimer.stop();
+                //On the EDT, which records the paint times
+                StepProfile.report(steps, paintProfile);
                 Window window = SwingUtilities.getWindowAncestor(this);
                 if (window != null) window.dispose();
             });
+        } else {
+            profile.report();
+        }
+        comm.close();
+    }
+
+    //Overlap push and impulse for the rows start..end, written to corrected. All pairs read the same
+    //gathered state (Jacobi), so a pair split over two ranks is computed the same way on both sides:
+    //always from the lower to the higher index, each rank keeping only its own half.
+    private void resolveContacts(double[] flatCurrent, int n, int start, int end, double[] corrected) {
+        unpack(flatCurrent, n);
+        collisionCells.build(xs, ys, n);
+        for (int i = start; i < end; i++) {
+            int localIdx = i - start;
+            System.arraycopy(flatCurrent, i * FIELDS, corrected, localIdx * FIELDS, FIELDS);
+            int found = collisionCells.within(i, neighbours);
+            for (int k = 0; k < found; k++) {
+                int j = neighbours[k];
+                int a = Math.min(i, j), b = Math.max(i, j);
+                double xa = flatCurrent[a * FIELDS];
+                double ya = flatCurrent[a * FIELDS + 1];
+                double dxa = flatCurrent[a * FIELDS + 2];
+                double dya = flatCurrent[a * FIELDS + 3];
+                double ma = masses[a];
+
+                double xb = flatCurrent[b * FIELDS];
+                double yb = flatCurrent[b * FIELDS + 1];
+                double dxb = flatCurrent[b * FIELDS + 2];
+                double dyb = flatCurrent[b * FIELDS + 3];
+                double mb = masses[b];
+
+                double dx = xb - xa;
+                double dy = yb - ya;
+                double dist = Math.sqrt(dx * dx + dy * dy + SOFTENING);
+                if (dist >= 12.0) continue;
+
+                double nx = dx / dist;
+                double ny = dy / dist;
+                double overlap = 12.0 - dist;
+                double sign = i == a ? -1.0 : 1.0;
+                corrected[localIdx * FIELDS + 0] += sign * nx * (overlap / 2.0);
+                corrected[localIdx * FIELDS + 1] += sign * ny * (overlap / 2.0);
+
+                double dvx = dxb - dxa;
+                double dvy = dyb - dya;
+                double relVel = dvx * nx + dvy * ny;
+                if (relVel > 0) continue;
+                double impulse = -(1 + restitution) * relVel;
+                impulse /= (1.0 / ma + 1.0 / mb);
+                double mi = i == a ? ma : mb;
+                corrected[localIdx * FIELDS + 2] += sign * (impulse * nx) / mi;
+                corrected[localIdx * FIELDS + 3] += sign * (impulse * ny) / mi;
+            }
         }
-        MPI.Finalize();
+    }
+
+    //Fills the whole state with ParticleGenerator, every rank gets the same particles from the same seed
+    private void generate(double[] flatCurrent, int n, long seed) {
+        ParticleGenerator.fromConfig().fill((i, x, y, dx, dy, r, q) -> {
+            flatCurrent[i * FIELDS] = x;
+            flatCurrent[i * FIELDS + 1] = y;
+            flatCurrent[i * FIELDS + 2] = dx;
+            flatCurrent[i * FIELDS + 3] = dy;
+            masses[i] = r * r * Math.PI;
+            charges[i] = q;
+        }, n, seed, 800, 600);
+    }
+
+    //seed=... when given. Otherwise the GUI run keeps its fixed seed 42 and the headless run has rank 0 draw one
+    //and broadcast it.
+    private long sharedSeed(boolean fixed) {
+        if (Config.text("seed", null) == null && fixed) return 42;
+        return ParticleGenerator.seed(comm);
+    }
+
+    //First row of every rank, bounds[size] = n. Block gives every rank the same number of rows,
+    //triangular gives every rank the same number of j > i pairs (row i has n - 1 - i of them).
+    static int[] rowBounds(int n, int size, boolean triangular) {
+        int[] bounds = new int[size + 1];
+        bounds[size] = n;
+        if (!triangular) {
+            int chunkSize = (n + size - 1) / size;
+            for (int r = 0; r < size; r++) bounds[r] = Math.min(r * chunkSize, n);
+            return bounds;
+        }
+        long totalPairs = pairsBefore(n, n);
+        for (int r = 1; r < size; r++) {
+            long target = totalPairs * r / size;
+            int lo = bounds[r - 1], hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairsBefore(mid, n) < target) lo = mid + 1;
+                else hi = mid;
+            }
+            bounds[r] = lo;
+        }
+        return bounds;
+    }
+
+    //Number of j > i pairs in rows 0..rows-1
+    private static long pairsBefore(long rows, long n) {
+        return rows * (n - 1) - rows * (rows - 1) / 2;
+    }
+
+    //Copies x and y out of the flat state so the force loops read contiguous arrays
+    private void unpack(double[] flatCurrent, int n) {
+        if (xs == null) {
+            xs = new double[n];
+            ys = new double[n];
+            treeFx = new double[n];
+            treeFy = new double[n];
+            neighbours = new int[n];
+        }
+        qs = charges;
+        for (int i = 0; i < n; i++) {
+            xs[i] = flatCurrent[i * FIELDS];
+            ys[i] = flatCurrent[i * FIELDS + 1];
+        }
+    }
+
+    //x, y only (default) or all of FIELDS
+    private static int exchangedFields() {
+        return Config.flag("positionsOnly", true) ? 2 : FIELDS;
+    }
+
+    //Writes the gathered rows (sent fields each) back into the state
+    private static void scatter(double[] exchanged, int sent, double[] flatCurrent, int n) {
+        if (sent == FIELDS) {
+            System.arraycopy(exchanged, 0, flatCurrent, 0, n * FIELDS);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(exchanged, i * sent, flatCurrent, i * FIELDS, sent);
+        }
+    }
+
+    //Uncut forces on the rows start..end from a quadtree over all n particles, after unpack
+    private void treeForces(int n, int start, int end) {
+        Arrays.fill(treeFx, start, end, 0.0);
+        Arrays.fill(treeFy, start, end, 0.0);
+        barnesHut.compute(xs, ys, qs, n, start, end, treeFx, treeFy, null, 1);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         setBackground(Color.WHITE);
-        if (particles == null) return;
+        if (snapshots == null) return;
+        paintProfile.begin();
+        if (raster != null) {
+            raster.draw(g, snapshots.latest(), getWidth(), getHeight());
+            paintProfile.lap(0);
+            return;
+        }
         Graphics2D gfx = (Graphics2D) g;
         gfx.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        for (Particle p : particles) {
-            gfx.setColor(p.getCharge() >= 1 ? Color.BLUE : Color.RED);
-            double x = p.getX();
-            double y = p.getY();
-            gfx.fillOval((int) (x - p.radius), (int) (y - p.radius),
-                    (int) (2 * p.radius), (int) (2 * p.radius));
+        //Straight from the primitive arrays, nothing is allocated per particle
+        Snapshot s = snapshots.latest();
+        for (int i = 0; i < s.size; i++) {
+            gfx.setColor(s.charge[i] >= 1 ? Color.BLUE : Color.RED);
+            double r = s.radius[i];
+            gfx.fillOval((int) (s.x[i] - r), (int) (s.y[i] - r), (int) (2 * r), (int) (2 * r));
         }
+        paintProfile.lap(0);
     }
 
-    public static void main(String[] args) throws Exception {
-        MPI.Init(args);
-        int n = Integer.parseInt(args[6]);
-        int cycles = Integer.parseInt(args[7]);
-        boolean show = Boolean.parseBoolean(args[8]);
-        new DistributedGui(n, cycles, show);
+    public static void main(String[] args) {
+        //key=value arguments become collision.* settings, e.g. forces=barnes-hut theta=0.5
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) Config.set(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+
+        Communicator comm;
+        int first;
+        if (Config.text("comm", "mpj").equals("sockets")) {
+            //Plain java per rank: n cycles show comm=sockets rank=0 size=4 [hosts=a:7000,b:7000,...]
+            comm = SocketCommunicator.connect(Config.integer("rank", 0), Config.integer("size", 1),
+                    Config.text("hosts", ""), Config.integer("port", 7000));
+            first = 0;
+        } else {
+            //starter.jar puts its own arguments first
+            comm = MpjCommunicator.init(args);
+            first = 6;
+        }
+        int n = Integer.parseInt(positional.get(first));
+        int cycles = Integer.parseInt(positional.get(first + 1));
+        boolean show = Boolean.parseBoolean(positional.get(first + 2));
+        new DistributedGui(comm, n, cycles, show);
     }
 }
@@ -0,0 +1,192 @@
+package collision;
+
+import java.util.Arrays;
+
+//Row kernel of the headless replicated DistributedGui run over flat x, y, dx, dy rows: every rank steps its
+//rows start..end against all n positions, each row visiting the j > i only, with forces, overlap push and walls.
+//The j loop is a ForceRow, forces=barnes-hut takes the forces from a quadtree over all n instead and
+//neighbours=verlet walks Verlet lists. Needs no communicator, the caller exchanges the rows.
+public class DistributedRows {
+    public static final int FIELDS = 4; //x, y, dx, dy, the part of the state that changes every step
+    private static final double WIDTH = 800, HEIGHT = 600;
+
+    private final double softening;
+    private final double restitution;
+    private final TimeStep clock;
+    private final BarnesHut barnesHut;
+    private final CellList contacts = new CellList(24.0); //past 12 because xi moves while its row is processed
+    //neighbours=verlet: the j > i of the own rows within reach of the cutoff (of the contact push with
+    //barnes-hut), kept across steps. Every rank checks all positions, so all rebuild together.
+    private final VerletList verlet;
+    private final ForceRow forceRow = ForceRow.create();
+    private final double[] velocity = new double[2]; //dxi, dyi while ForceRow walks a row
+    private double[] masses, charges;
+    private double[] xs, ys, treeFx, treeFy;
+    private int[] neighbours;
+
+    public DistributedRows(double softening, double restitution, TimeStep clock) {
+        this.softening = softening;
+        this.restitution = restitution;
+        this.clock = clock;
+        this.barnesHut = Config.text("forces", "cutoff").equals("barnes-hut")
+                ? new BarnesHut(Config.real("theta", 0.5), 200.0, softening) : null;
+        this.verlet = VerletList.fromConfig(barnesHut == null ? 200.0 + 12.0 : 24.0, null, 1);
+    }
+
+    public boolean barnesHut() {
+        return barnesHut != null;
+    }
+
+    //Masses and charges of the rows, again whenever the rows are reordered
+    public void particles(double[] masses, double[] charges) {
+        this.masses = masses;
+        this.charges = charges;
+    }
+
+    //The rows changed places, the next step rebuilds the Verlet lists
+    public void invalidate() {
+        if (verlet != null) verlet.invalidate();
+    }
+
+    //One step of dt for the rows start..end. They are updated in place in flat and their first sent fields
+    //copied to localUpdate (and handed to the pipeline, if any) for the exchange.
+    public void step(double[] flat, int n, int start, int end, double dt, double[] localUpdate, int sent,
+                     PipelinedExchange pipeline) {
+        unpack(flat, n);
+        double[] qs = charges;
+        if (verlet != null) verlet.update(xs, ys, n, start, end);
+        if (barnesHut != null) {
+            Arrays.fill(treeFx, start, end, 0.0);
+            Arrays.fill(treeFy, start, end, 0.0);
+            barnesHut.compute(xs, ys, qs, n, start, end, treeFx, treeFy, null, 1);
+            if (verlet == null) contacts.build(xs, ys, n);
+        }
+
+        for (int i = start; i < end; i++) {
+            double xi = flat[i * FIELDS];
+            double yi = flat[i * FIELDS + 1];
+            double dxi = flat[i * FIELDS + 2];
+            double dyi = flat[i * FIELDS + 3];
+            double mi = masses[i];
+            double qi = charges[i];
+            //F dt / m, the force loops below divide by mass instead of mi
+            double mass = mi / dt;
+            double vx = dxi, vy = dyi;
+
+            if (barnesHut != null) {
+                dxi += treeFx[i] / mass;
+                dyi += treeFy[i] / mass;
+                //Same overlap push as below, only for the j > i pairs that can touch
+                int[] list = neighbours;
+                int from = 0, found;
+                if (verlet != null) {
+                    list = verlet.neighbours();
+                    from = verlet.start(i);
+                    found = verlet.end(i);
+                } else {
+                    found = contacts.higherNeighbours(i, neighbours);
+                }
+                for (int k = from; k < found; k++) {
+                    int j = list[k];
+                    double dx = xs[j] - xi;
+                    double dy = ys[j] - yi;
+                    double dist = Math.sqrt(dx * dx + dy * dy + softening);
+                    if (dist < 12.0) {
+                        double nx = dx / dist;
+                        double ny = dy / dist;
+                        double overlap = 12.0 - dist;
+                        xi -= nx * (overlap / 2.0);
+                        yi -= ny * (overlap / 2.0);
+                    }
+                }
+            } else if (verlet != null) {
+                //The scalar ForceRow arithmetic over the listed j only, the same as StripSimulation
+                int[] list = verlet.neighbours();
+                for (int k = verlet.start(i), last = verlet.end(i); k < last; k++) {
+                    int j = list[k];
+                    double dx = xs[j] - xi;
+                    double dy = ys[j] - yi;
+                    double distSq = dx * dx + dy * dy + softening;
+                    double dist = Math.sqrt(distSq);
+                    if (dist > 200) continue;
+                    double invDist3 = 1.0 / (distSq * dist);
+                    double f = 200.0 * qi * qs[j] * invDist3;
+                    double fx = f * dx / dist;
+                    double fy = f * dy / dist;
+                    dxi += fx / mass;
+                    dyi += fy / mass;
+                    if (dist < 12.0) {
+                        double nx = dx / dist;
+                        double ny = dy / dist;
+                        double overlap = 12.0 - dist;
+                        xi -= nx * (overlap / 2.0);
+                        yi -= ny * (overlap / 2.0);
+                    }
+                }
+            } else {
+                //ForceRow runs the j > i loop up to the next touching j, that one is done here since it moves i
+                velocity[0] = dxi;
+                velocity[1] = dyi;
+                int j = i + 1;
+                while ((j = forceRow.untilContact(xs, ys, qs, j, n, xi, yi, 200.0 * qi, mass, 200, 12.0, softening, velocity)) < n) {
+                    double dx = xs[j] - xi;
+                    double dy = ys[j] - yi;
+                    double distSq = dx * dx + dy * dy + softening;
+                    double dist = Math.sqrt(distSq);
+                    double invDist3 = 1.0 / (distSq * dist);
+                    double f = 200.0 * qi * qs[j] * invDist3;
+                    double fx = f * dx / dist;
+                    double fy = f * dy / dist;
+                    velocity[0] += fx / mass;
+                    velocity[1] += fy / mass;
+                    double nx = dx / dist;
+                    double ny = dy / dist;
+                    double overlap = 12.0 - dist;
+                    xi -= nx * (overlap / 2.0);
+                    yi -= ny * (overlap / 2.0);
+                    j++;
+                }
+                dxi = velocity[0];
+                dyi = velocity[1];
+            }
+            if (clock.adaptive()) {
+                double ax = (dxi - vx) / dt, ay = (dyi - vy) / dt;
+                clock.accelerated(Math.sqrt(ax * ax + ay * ay));
+            }
+            xi += dxi * dt;
+            yi += dyi * dt;
+
+
+            if (xi - 5 <= 0 || xi + 5 >= WIDTH) {
+                dxi = -dxi * restitution;
+                xi = Math.max(5.0, Math.min(WIDTH - 5.0, xi));
+            }
+            if (yi - 5 <= 0 || yi + 5 >= HEIGHT) {
+                dyi = -dyi * restitution;
+                yi = Math.max(5.0, Math.min(HEIGHT - 5.0, yi));
+            }
+            //Other rows read xs/ys, so the own row can be updated in place
+            flat[i * FIELDS + 0] = xi;
+            flat[i * FIELDS + 1] = yi;
+            flat[i * FIELDS + 2] = dxi;
+            flat[i * FIELDS + 3] = dyi;
+            System.arraycopy(flat, i * FIELDS, localUpdate, (i - start) * sent, sent);
+            if (pipeline != null) pipeline.rowDone(i, localUpdate);
+        }
+    }
+
+    //Copies x and y out of the flat state so the force loops read contiguous arrays
+    private void unpack(double[] flat, int n) {
+        if (xs == null || xs.length < n) {
+            xs = new double[n];
+            ys = new double[n];
+            treeFx = new double[n];
+            treeFy = new double[n];
+            neighbours = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            xs[i] = flat[i * FIELDS];
+            ys[i] = flat[i * FIELDS + 1];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package collision;
+
+//Inner j loops of the brute-force Coulomb kernels over flat x/y/q arrays.
+//ScalarForceRow unless -Dcollision.simd=true, then VectorForceRow when src-vector was compiled in and the JVM runs
+//with --add-modules jdk.incubator.vector. VectorForceRow still allocates its vectors on JDK 17, so it is off.
+public interface ForceRow {
+
+    //ParallelGui law F = k * qi * qj * r / (r^2 + soft)^1.5 for 0 < r^2 < cutoff2, over j = from..to-1.
+    //Adds the force on i to out[0], out[1] and the reaction to bx[j], by[j].
+    void symmetric(double[] x, double[] y, double[] q, int from, int to,
+                   double xi, double yi, double kqi, double cutoff2, double softening,
+                   double[] bx, double[] by, double[] out);
+
+    //DistributedGui law, f = k * qi * qj / (d^2 * d) along (xj - xi) / d with d = sqrt(r^2 + soft), skipped when d > cutoff.
+    //Adds the acceleration of i to out[0], out[1] and stops at the first j with d < contact, which is returned
+    //without its force so the caller can push i away and go on from j + 1. Returns to when no j touches.
+    int untilContact(double[] x, double[] y, double[] q, int from, int to,
+                     double xi, double yi, double kqi, double mass, double cutoff, double contact, double softening,
+                     double[] out);
+
+    static ForceRow create() {
+        if (Config.flag("simd", false)) {
+            try {
+                return (ForceRow) Class.forName("collision.VectorForceRow").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //Not compiled in or jdk.incubator.vector is not in the module graph, stay scalar
+            }
+        }
+        return new ScalarForceRow();
+    }
+}
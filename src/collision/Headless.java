@@ -0,0 +1,51 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Sequential or parallel run without Swing, nothing here loads the AWT toolkit, so it works on servers:
+//java collision.Headless sequential|parallel n cycles [threads=8] [width=800 height=600] [key=value ...]
+//restart=path continues a checkpoint (its n, step and bounds) up to cycles steps in total.
+//timestep=adaptive until=T stops at simulated time T instead, cycles is then only the limit.
+public class Headless {
+    public static void main(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) Config.set(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+        if (positional.size() < 3) {
+            System.err.println("Usage: Headless sequential|parallel n cycles [key=value ...]");
+            System.exit(1);
+        }
+        run(positional.get(0), Integer.parseInt(positional.get(1)), Integer.parseInt(positional.get(2)));
+    }
+
+    //Also the headless choice of the Optimal menus, which never build a panel
+    public static void run(String mode, int n, int cycles) {
+        Checkpoint restart = Checkpoint.restart();
+        double width = Config.real("width", restart != null ? restart.width : SimulationEngine.DEFAULT_WIDTH);
+        double height = Config.real("height", restart != null ? restart.height : SimulationEngine.DEFAULT_HEIGHT);
+
+        ParticleStore particles = restart != null ? restart.particles() : ParticleStore.generate(n, width, height);
+        if (restart != null) restart.release();
+        long from = restart != null ? restart.step : 0;
+        SimulationEngine engine;
+        if (mode.equals("parallel")) {
+            int threads = Config.integer("threads", Runtime.getRuntime().availableProcessors());
+            engine = new ParallelEngine(particles, threads, width, height);
+        } else if (mode.equals("sequential")) {
+            engine = new SequentialEngine(particles, width, height);
+        } else {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        if (restart != null) engine.timeStep().restore(restart.time, restart.acceleration);
+
+        long time = SimulationEngine.run(engine, from, cycles, width, height);
+        engine.close();
+        System.out.printf("%s simulation finished in %d ms, cycles passed: %d, simulated time: %.2f%n",
+                mode, time, from + engine.timeStep().steps(), engine.timeStep().time());
+    }
+}
@@ -0,0 +1,61 @@
+package collision;
+
+//Nanosecond histogram with 16 linear buckets per power of two, so a percentile is off by at most 1/16.
+//record() is a few shifts and an increment without allocation, cheap enough to stay on for every step.
+//Not thread safe, every recording thread keeps its own.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB];
+    private long count, total, max;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public long mean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    //Upper end of the bucket that holds the p-th percentile (0..100), never above max
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, upper(i));
+        }
+        return max;
+    }
+
+    //Below SUB one bucket per value, above it the SUB_BITS bits after the leading one pick the bucket
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        int shift = msb - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    private static long upper(int index) {
+        if (index < SUB) return index;
+        int shift = index / SUB - 1;
+        long lower = (long) (SUB + index % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
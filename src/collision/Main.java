@@ -79,7 +79,7 @@ public class Main {
                         return;
                     }
 
-                    Gui gui = new Gui(numParticles,cycles, true);
+                    Gui gui = new Gui(numParticles, cycles);
                     frame.removeAll();
                     frame.setVisible(false);
 
@@ -0,0 +1,62 @@
+package collision;
+
+import java.util.concurrent.ExecutorService;
+
+//Z-order (Morton) sort of particle positions (-Dcollision.reorder=k, every k steps, 0 = never, the default).
+//Positions are quantized to 16 bits per axis over their bounding box and interleaved into a 32-bit key, so
+//particles that are close in space get close keys and after the engine permutes its arrays into this order the
+//neighbours of a particle sit in nearby cache lines. The (key, slot) pairs are sorted by RadixSort on the
+//executor of the engine, four 8-bit passes over the key. The sort is stable, equal keys keep their slot order.
+public class MortonOrder {
+    private final RadixSort sort;
+    private long[] keys = new long[0]; //key << 32 | slot
+    private int[] order = new int[0];
+
+    public MortonOrder(ExecutorService executor, int threads) {
+        this.sort = new RadixSort(executor, threads);
+    }
+
+    //reorder=k, 0 when off
+    public static int every() {
+        return Math.max(0, Config.integer("reorder", 0));
+    }
+
+    //order[k] is the current slot of the particle that goes to slot k, valid until the next call
+    public int[] order(double[] x, double[] y, int n) {
+        if (keys.length < n) {
+            keys = new long[n];
+            order = new int[n];
+        }
+        if (n == 0) return order;
+        double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double scaleX = maxX > minX ? 65535.0 / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 65535.0 / (maxY - minY) : 0;
+        for (int i = 0; i < n; i++) {
+            int qx = (int) ((x[i] - minX) * scaleX);
+            int qy = (int) ((y[i] - minY) * scaleY);
+            long key = spread(qx) | spread(qy) << 1;
+            keys[i] = key << 32 | i;
+        }
+        sort.sort(keys, n, 32, 64);
+        for (int k = 0; k < n; k++) {
+            order[k] = (int) keys[k];
+        }
+        return order;
+    }
+
+    //The 16 low bits of v on the even bit positions
+    private static long spread(int v) {
+        long x = v & 0xFFFF;
+        x = (x | x << 8) & 0x00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0FL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+}
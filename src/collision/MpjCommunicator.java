@@ -0,0 +1,106 @@
+package collision;
+
+import mpi.*;
+
+//Communicator on MPJ Express, launched through starter.jar / mpjrun as before
+public class MpjCommunicator implements Communicator {
+    private final int rank;
+    private final int size;
+
+    private MpjCommunicator() throws MPIException {
+        rank = MPI.COMM_WORLD.Rank();
+        size = MPI.COMM_WORLD.Size();
+    }
+
+    public static MpjCommunicator init(String[] args) {
+        try {
+            MPI.Init(args);
+            return new MpjCommunicator();
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int rank() {
+        return rank;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void bcast(double[] buf, int offset, int count, int root) {
+        try {
+            MPI.COMM_WORLD.Bcast(buf, offset, count, MPI.DOUBLE, root);
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void allgatherv(double[] send, int sendOffset, int sendCount, double[] recv, int[] counts, int[] displs) {
+        try {
+            MPI.COMM_WORLD.Allgatherv(send, sendOffset, sendCount, MPI.DOUBLE, recv, 0, counts, displs, MPI.DOUBLE);
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void send(double[] buf, int offset, int count, int dest, int tag) {
+        try {
+            MPI.COMM_WORLD.Send(buf, offset, count, MPI.DOUBLE, dest, tag);
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void recv(double[] buf, int offset, int count, int source, int tag) {
+        try {
+            MPI.COMM_WORLD.Recv(buf, offset, count, MPI.DOUBLE, source, tag);
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Pending isend(double[] buf, int offset, int count, int dest, int tag) {
+        try {
+            return pending(MPI.COMM_WORLD.Isend(buf, offset, count, MPI.DOUBLE, dest, tag));
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Pending irecv(double[] buf, int offset, int count, int source, int tag) {
+        try {
+            return pending(MPI.COMM_WORLD.Irecv(buf, offset, count, MPI.DOUBLE, source, tag));
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            MPI.Finalize();
+        } catch (MPIException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Pending pending(Request request) {
+        return () -> {
+            try {
+                request.Wait();
+            } catch (MPIException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+}
@@ -52,7 +52,8 @@ public class Optimal extends JFrame {
                 int n = sc.nextInt();
                 System.out.println("Enter number of cycles: ");
                 int cycle = sc.nextInt();
-                Gui gui = new Gui(n, cycle, false);
+                Headless.run("sequential", n, cycle);
+                System.exit(0);
 
             }catch(Exception ex){
                 throw new RuntimeException(ex);
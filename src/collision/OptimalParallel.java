@@ -43,7 +43,8 @@ public class OptimalParallel extends JFrame {
                 int n = sc.nextInt();
                 System.out.println("Enter number of cycles: ");
                 int cycle = sc.nextInt();
-                ParallelGui gui = new ParallelGui(n, cycle, false);
+                Headless.run("parallel", n, cycle);
+                System.exit(0);
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
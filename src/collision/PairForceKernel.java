@@ -0,0 +1,228 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Cutoff Coulomb forces for ParallelGui, every unordered pair is computed once (Newton's third law).
+//Particles are cut into tiles of TILE indices and each thread owns a fixed run of (I, J >= I) tile pairs,
+//adding +f to i and -f to j in its own scratch rows. The rows live across steps and are summed into the
+//velocities in parallel, in thread order, so a given thread count always gives the same result.
+//The j loop of a tile row is a ForceRow, vectorized with simd=true when jdk.incubator.vector is available.
+public class PairForceKernel {
+    private static final int TILE = 256;
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final double k;
+    private final double softening;
+    private final double cutoff2;
+    private final ForceRow forceRow = ForceRow.create();
+
+    private double[][] fx;
+    private double[][] fy;
+    private final double[][] rowSums; //force on the current i of every thread
+    private final double[] maxAcceleration; //largest |F / m| squared of every thread's slice
+    private double dt;
+    private int[] tileStart; //first tile pair of every thread, plus the total at the end
+    private int[] pairI;
+    private int[] pairJ;
+    private int preparedFor = -1;
+    private final List<Callable<Void>> forceTasks = new ArrayList<>();
+    private final List<Callable<Void>> reduceTasks = new ArrayList<>();
+    private final List<Callable<Void>> listTasks = new ArrayList<>();
+    private final int[] listRows; //first row of every thread over a VerletList, plus n at the end
+    private VerletList list;
+    private ParticleStore store;
+
+    public PairForceKernel(ExecutorService executor, int threads, double k, double softening, double cutoff) {
+        this.executor = executor;
+        this.threads = threads;
+        this.k = k;
+        this.softening = softening;
+        this.cutoff2 = cutoff * cutoff;
+        this.fx = new double[threads][0];
+        this.fy = new double[threads][0];
+        this.rowSums = new double[threads][2];
+        this.maxAcceleration = new double[threads];
+        this.listRows = new int[threads + 1];
+        for (int t = 0; t < threads; t++) {
+            final int tid = t;
+            forceTasks.add(() -> {
+                forces(tid);
+                return null;
+            });
+            reduceTasks.add(() -> {
+                reduce(tid);
+                return null;
+            });
+            listTasks.add(() -> {
+                listForces(tid);
+                return null;
+            });
+        }
+    }
+
+    //Adds F / m of a unit step to dx and dy of every particle in the store
+    public void apply(ParticleStore s) {
+        apply(s, 1.0);
+    }
+
+    //Adds F dt / m to dx and dy of every particle in the store
+    public void apply(ParticleStore s, double dt) {
+        store = s;
+        this.dt = dt;
+        prepare(s.size());
+        invoke(forceTasks);
+        invoke(reduceTasks);
+    }
+
+    //Same forces over the pairs of an up to date VerletList (neighbours=verlet) instead of all tile pairs.
+    //Threads take runs of rows with about the same number of listed pairs.
+    public void apply(ParticleStore s, double dt, VerletList list) {
+        store = s;
+        this.dt = dt;
+        this.list = list;
+        int n = s.size();
+        prepare(n);
+        long total = n == 0 ? 0 : list.end(n - 1);
+        int row = 0;
+        for (int t = 0; t < threads; t++) {
+            long target = total * t / threads;
+            while (row < n && list.start(row) < target) row++;
+            listRows[t] = row;
+        }
+        listRows[threads] = n;
+        invoke(listTasks);
+        invoke(reduceTasks);
+    }
+
+    //ForceRow.symmetric over the listed j of every row
+    private void listForces(int tid) {
+        double[] x = store.x, y = store.y, q = store.charge;
+        double[] bx = fx[tid], by = fy[tid];
+        int[] neighbours = list.neighbours();
+        for (int i = listRows[tid]; i < listRows[tid + 1]; i++) {
+            double xi = x[i], yi = y[i], kqi = k * q[i];
+            double fxi = 0, fyi = 0;
+            for (int p = list.start(i), end = list.end(i); p < end; p++) {
+                int j = neighbours[p];
+                double dx = xi - x[j];
+                double dy = yi - y[j];
+                double r2 = dx * dx + dy * dy;
+                if (r2 > 0 && r2 < cutoff2) {
+                    double dist2 = r2 + softening;
+                    double f = kqi * q[j] / (dist2 * Math.sqrt(dist2));
+                    fxi += f * dx;
+                    fyi += f * dy;
+                    bx[j] -= f * dx;
+                    by[j] -= f * dy;
+                }
+            }
+            bx[i] += fxi;
+            by[i] += fyi;
+        }
+    }
+
+    //Rebuilds the scratch rows and the tile schedule only when the particle count changes
+    private void prepare(int n) {
+        if (n == preparedFor) return;
+        preparedFor = n;
+        if (fx[0].length < n) {
+            int capacity = Math.max(n, fx[0].length + (fx[0].length >> 1));
+            for (int t = 0; t < threads; t++) {
+                fx[t] = new double[capacity];
+                fy[t] = new double[capacity];
+            }
+        }
+
+        int tiles = (n + TILE - 1) / TILE;
+        int pairs = tiles * (tiles + 1) / 2;
+        pairI = new int[pairs];
+        pairJ = new int[pairs];
+        int p = 0;
+        for (int I = 0; I < tiles; I++) {
+            for (int J = I; J < tiles; J++) {
+                pairI[p] = I;
+                pairJ[p] = J;
+                p++;
+            }
+        }
+
+        //Split the tile pairs so every thread gets the same weight, a diagonal tile has half the pairs
+        long total = 2L * pairs - tiles;
+        tileStart = new int[threads + 1];
+        long weight = 0;
+        int t = 1;
+        for (p = 0; p < pairs && t < threads; p++) {
+            weight += pairI[p] == pairJ[p] ? 1 : 2;
+            while (t < threads && weight * threads >= total * t) {
+                tileStart[t++] = p + 1;
+            }
+        }
+        while (t <= threads) tileStart[t++] = pairs;
+    }
+
+    private void forces(int tid) {
+        double[] x = store.x, y = store.y, q = store.charge;
+        double[] bx = fx[tid], by = fy[tid];
+        double[] row = rowSums[tid];
+        int n = store.size();
+
+        for (int p = tileStart[tid]; p < tileStart[tid + 1]; p++) {
+            int iStart = pairI[p] * TILE, iEnd = Math.min(iStart + TILE, n);
+            int jFrom = pairJ[p] * TILE, jEnd = Math.min(jFrom + TILE, n);
+            boolean diagonal = pairI[p] == pairJ[p];
+
+            for (int i = iStart; i < iEnd; i++) {
+                row[0] = 0;
+                row[1] = 0;
+                forceRow.symmetric(x, y, q, diagonal ? i + 1 : jFrom, jEnd, x[i], y[i], k * q[i], cutoff2, softening, bx, by, row);
+                bx[i] += row[0];
+                by[i] += row[1];
+            }
+        }
+    }
+
+    //Each thread sums one slice of particles over all scratch rows and clears them for the next step
+    private void reduce(int tid) {
+        int n = store.size();
+        int chunk = (n + threads - 1) / threads;
+        int start = tid * chunk, end = Math.min(start + chunk, n);
+        double[] dx = store.dx, dy = store.dy, invMass = store.invMass;
+        double most = 0;
+        for (int i = start; i < end; i++) {
+            double totalFx = 0, totalFy = 0;
+            for (int t = 0; t < threads; t++) {
+                totalFx += fx[t][i];
+                totalFy += fy[t][i];
+                fx[t][i] = 0;
+                fy[t][i] = 0;
+            }
+            double ax = totalFx * invMass[i], ay = totalFy * invMass[i];
+            dx[i] += ax * dt;
+            dy[i] += ay * dt;
+            most = Math.max(most, ax * ax + ay * ay);
+        }
+        maxAcceleration[tid] = most;
+    }
+
+    //Largest |F / m| of the last apply()
+    public double maxAcceleration() {
+        double most = 0;
+        for (double a : maxAcceleration) most = Math.max(most, a);
+        return Math.sqrt(most);
+    }
+
+    private void invoke(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package collision;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//Physics of ParallelGui on its own thread pool: pair forces, move and lock-free contacts
+public class ParallelEngine implements SimulationEngine {
+    private final ParticleStore particles;
+    private double width;
+    private double height;
+    private final ExecutorService executor;
+    private final int numThreads;
+    private final double k = 200.0;
+    private final double SOFTENING = 2.0;
+    //-Dcollision.forces=barnes-hut replaces the 200 unit cutoff with the uncut quadtree approximation
+    private final BarnesHut barnesHut = Config.text("forces", "cutoff").equals("barnes-hut")
+            ? new BarnesHut(Config.real("theta", 0.5), k, SOFTENING) : null;
+    private final PairForceKernel forceKernel;
+    private final ContactSolver contactSolver;
+    //neighbours=verlet: pairs within the cutoff for the forces and within twice the contact distance for the
+    //contacts, both kept across steps. Scanning the long force lists for the few touching pairs costs more
+    //than a second, short list.
+    private final VerletList verlet;
+    private final VerletList contactList;
+    private double[] treeFx = new double[0];
+    private double[] treeFy = new double[0];
+    private static final int FORCES = 0, MOVE = 1, CONTACTS = 2;
+    private final StepProfile profile = new StepProfile("parallel", 0, "forces", "move", "contacts");
+    private long steps;
+    private final TimeStep clock = TimeStep.fromConfig();
+    private double dt;
+    //reorder=k sorts the store by Morton key every k steps, counted in the forces phase
+    private final int reorderEvery = MortonOrder.every();
+    private final MortonOrder morton;
+
+    public ParallelEngine(ParticleStore particles, int threads, double width, double height) {
+        this.particles = particles;
+        this.numThreads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.forceKernel = new PairForceKernel(executor, threads, k, SOFTENING, 200.0);
+        this.contactSolver = new ContactSolver(executor, threads, 0.8);
+        this.verlet = barnesHut == null ? VerletList.fromConfig(200.0, executor, threads) : null;
+        this.contactList = VerletList.fromConfig(24.0, executor, threads);
+        this.morton = reorderEvery > 0 ? new MortonOrder(executor, threads) : null;
+        setBounds(width, height);
+    }
+
+    @Override
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    @Override
+    public void setBounds(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public TimeStep timeStep() {
+        return clock;
+    }
+
+    @Override
+    public StepProfile profile() {
+        return profile;
+    }
+
+    @Override
+    public void step() {
+        ParticleStore s = particles;
+        profile.step(steps++);
+        profile.begin();
+        dt = clock.adaptive() ? clock.next(s.maxSpeed(), s.minRadius()) : clock.next(0, 0);
+        if (morton != null && (steps - 1) % reorderEvery == 0) {
+            s.reorder(morton.order(s.x, s.y, s.size()));
+            if (verlet != null) verlet.invalidate();
+            if (contactList != null) contactList.invalidate();
+        }
+        if (barnesHut != null) {
+            treeForces(s);
+        } else if (verlet != null) {
+            verlet.update(s.x, s.y, s.size());
+            forceKernel.apply(s, dt, verlet);
+            clock.accelerated(forceKernel.maxAcceleration());
+        } else {
+            forceKernel.apply(s, dt);
+            clock.accelerated(forceKernel.maxAcceleration());
+        }
+        profile.lap(FORCES);
+        move(s);
+        profile.lap(MOVE);
+        resolveOverlaps();
+        profile.lap(CONTACTS);
+    }
+
+    //Contacts are split into colours with no shared particle and each colour is resolved in parallel
+    public void resolveOverlaps() {
+        if (contactList != null) contactList.update(particles.x, particles.y, particles.size());
+        contactSolver.resolve(particles, contactList);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void treeForces(ParticleStore s) {
+        int n = s.size();
+        if (treeFx.length < n) {
+            treeFx = new double[s.capacity()];
+            treeFy = new double[s.capacity()];
+        }
+        Arrays.fill(treeFx, 0, n, 0.0);
+        Arrays.fill(treeFy, 0, n, 0.0);
+        barnesHut.compute(s.x, s.y, s.charge, n, treeFx, treeFy, executor, numThreads);
+        double most = 0;
+        for (int i = 0; i < n; i++) {
+            double ax = treeFx[i] * s.invMass[i], ay = treeFy[i] * s.invMass[i];
+            s.dx[i] += ax * dt;
+            s.dy[i] += ay * dt;
+            most = Math.max(most, ax * ax + ay * ay);
+        }
+        clock.accelerated(Math.sqrt(most));
+    }
+
+    //Moves the particles with the velocities of this step and bounces them off the walls
+    private void move(ParticleStore s) {
+        int n = s.size();
+        for (int i = 0; i < n; i++) {
+            double r = s.radius[i];
+            double newX = s.x[i] + s.dx[i] * dt;
+            double newY = s.y[i] + s.dy[i] * dt;
+
+            if (newX - r <= 0 || newX + r >= width) {
+                s.dx[i] = -s.dx[i] * 0.8;
+                newX = Math.max(r, Math.min(width - r, newX));
+            }
+            if (newY - r <= 0 || newY + r >= height) {
+                s.dy[i] = -s.dy[i] * 0.8;
+                newY = Math.max(r, Math.min(height - r, newY));
+            }
+
+            s.x[i] = newX;
+            s.y[i] = newY;
+        }
+    }
+}
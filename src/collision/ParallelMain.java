@@ -45,7 +45,7 @@ public class ParallelMain {
             try {
                 int n = Integer.parseInt(textField.getText());
                 int cycles = Integer.parseInt(textField2.getText());
-                ParallelGui gui = new ParallelGui(n, cycles, true);
+                ParallelGui gui = new ParallelGui(n, cycles);
                 frame.dispose();
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(frame, "Invalid input!", "Error", JOptionPane.ERROR_MESSAGE);
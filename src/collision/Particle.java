@@ -1,8 +1,6 @@
 package collision;
 import java.io.Serializable;
-import java.awt.*;
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Particle implements Serializable {
     double x;
@@ -15,8 +13,8 @@ public class Particle implements Serializable {
     double mass;
 
 
-    Particle(int id, double x, double y, double velocity, double radius, Color color, double charge) {
-        Random r = new Random(); //Add seed to create same random
+    Particle(int id, double x, double y, double velocity, double radius, double charge) {
+        ThreadLocalRandom r = ThreadLocalRandom.current(); //No Random per particle, ParticleGenerator is the seeded path
         this.x = x;
         this.y = y;
         this.radius = radius;
@@ -56,21 +54,6 @@ public class Particle implements Serializable {
         return y;
     }
 
-    public static ArrayList<Particle> generate(int count) {
-        ArrayList<Particle> particles = new ArrayList<>();
-        Random r = new Random();//Put seed to make testing
-
-        for (int i = 0; i < count; i++) {
-            int x = r.nextInt(750);
-            int y = r.nextInt(550);
-            double radius = 6;
-            int charge = r.nextInt(-5, 6) + 1;
-            Color color = charge >= 0 ? Color.BLUE : Color.RED;
-            particles.add(new Particle(i, x, y, 3.0, radius, color, charge));
-        }
-        return particles;
-    }
-
     public static double distance(Particle a, Particle b) {
         double dx = a.getX() - b.getX();
         double dy = a.getY() - b.getY();
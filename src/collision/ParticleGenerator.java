@@ -0,0 +1,154 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Fills particles in parallel from a seeded SplittableRandom tree (-Dcollision.seed, -Dcollision.distribution).
+//The particles are cut into blocks of BLOCK, block b draws from the b-th split of the root, so the result for
+//a seed is the same bit for bit whatever the thread count. Charge -4..6 and velocity as in Particle; positions:
+//uniform (default) over the box less a 50 unit margin at the far walls like the old generator,
+//clusters: around `clusters` (default 8) centres with a Gaussian spread of `clusterSigma` (default 40),
+//lattice: a square grid over the box, only charge and velocity are random.
+public class ParticleGenerator {
+    static final int BLOCK = 1 << 14;
+    private static final double RADIUS = 6, SPEED = 3.0, MARGIN = 50;
+
+    //Where the particles go, called from several threads but never twice for the same i
+    public interface Target {
+        void set(int i, double x, double y, double dx, double dy, double radius, double charge);
+    }
+
+    private final String distribution;
+    private final int threads;
+    private final int clusters;
+    private final double clusterSigma;
+
+    public ParticleGenerator(String distribution, int threads, int clusters, double clusterSigma) {
+        if (!distribution.equals("uniform") && !distribution.equals("clusters") && !distribution.equals("lattice")) {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        this.distribution = distribution;
+        this.threads = Math.max(1, threads);
+        this.clusters = Math.max(1, clusters);
+        this.clusterSigma = clusterSigma;
+    }
+
+    public static ParticleGenerator fromConfig() {
+        return new ParticleGenerator(Config.text("distribution", "uniform"),
+                Config.integer("threads", Runtime.getRuntime().availableProcessors()),
+                Config.integer("clusters", 8), Config.real("clusterSigma", 40));
+    }
+
+    //seed=... when given, otherwise a new random one
+    public static long seed() {
+        String seed = Config.text("seed", null);
+        return seed != null ? Long.parseLong(seed.trim()) : new SplittableRandom().nextLong();
+    }
+
+    //The same seed on every rank: seed=... when given, otherwise rank 0 draws one and broadcasts it as two
+    //32-bit halves, which doubles carry exactly
+    public static long seed(Communicator comm) {
+        if (Config.text("seed", null) != null) return seed();
+        double[] halves = new double[2];
+        if (comm.rank() == 0) {
+            long seed = seed();
+            halves[0] = seed >>> 32;
+            halves[1] = seed & 0xFFFFFFFFL;
+        }
+        comm.bcast(halves, 0, 2, 0);
+        return (long) halves[0] << 32 | (long) halves[1];
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    //Particles 0..count-1 of target in a width x height box
+    public void fill(Target target, int count, long seed, double width, double height) {
+        fill(target, count, seed, width, height, 0, (count + BLOCK - 1) / BLOCK);
+    }
+
+    //Only the particles of the blocks fromBlock..toBlock (block b holds b * BLOCK..), the same as fill() gives
+    //them, so a caller can generate a large system a few blocks at a time
+    public void fill(Target target, int count, long seed, double width, double height, int fromBlock, int toBlock) {
+        SplittableRandom root = new SplittableRandom(seed);
+        //Drawn before the blocks split off, so every block sees the same centres
+        double[] cx = new double[clusters], cy = new double[clusters];
+        for (int c = 0; c < clusters; c++) {
+            cx[c] = root.nextDouble(width - MARGIN);
+            cy[c] = root.nextDouble(height - MARGIN);
+        }
+        for (int b = 0; b < fromBlock; b++) root.split();
+        int blocks = toBlock - fromBlock;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int b = fromBlock; b < toBlock; b++) {
+            SplittableRandom random = root.split();
+            int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    particle(target, i, count, random, width, height, cx, cy);
+                }
+                return null;
+            });
+        }
+        if (blocks <= 1 || threads == 1) {
+            for (Callable<Void> task : tasks) call(task);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, blocks));
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void particle(Target target, int i, int count, SplittableRandom random, double width, double height,
+                          double[] cx, double[] cy) {
+        double x, y;
+        switch (distribution) {
+            case "clusters": {
+                int c = random.nextInt(clusters);
+                x = clamp(cx[c] + random.nextGaussian() * clusterSigma, width);
+                y = clamp(cy[c] + random.nextGaussian() * clusterSigma, height);
+                break;
+            }
+            case "lattice": {
+                //columns x rows cells with about the aspect ratio of the box, one particle in the middle of each
+                int columns = Math.max(1, (int) Math.ceil(Math.sqrt(count * width / height)));
+                int rows = (count + columns - 1) / columns;
+                x = (i % columns + 0.5) * width / columns;
+                y = (i / columns + 0.5) * height / rows;
+                break;
+            }
+            default:
+                x = random.nextDouble(width - MARGIN);
+                y = random.nextDouble(height - MARGIN);
+        }
+        double charge = random.nextInt(-5, 6) + 1;
+        double angle = 2 * Math.PI * random.nextDouble();
+        double speed = random.nextDouble(-SPEED, SPEED);
+        target.set(i, x, y, speed * Math.cos(angle), speed * Math.sin(angle), RADIUS, charge);
+    }
+
+    private static double clamp(double v, double limit) {
+        return Math.max(RADIUS, Math.min(limit - RADIUS, v));
+    }
+
+    private static void call(Callable<Void> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package collision;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+//Particle state as parallel primitive arrays (structure of arrays), slot i of every array is particle id[i].
+//Ids are given in the order particles are added and never change, slots only change when reorder() sorts the
+//store (MortonOrder), so output goes by id and slot(id) finds a particle again.
+//The arrays are replaced when the store grows or is reordered, so read them again instead of caching them.
+public class ParticleStore {
+    public double[] x;
+    public double[] y;
+    public double[] dx;
+    public double[] dy;
+    public double[] mass;
+    public double[] invMass;
+    public double[] charge;
+    public double[] radius;
+    public int[] id;
+    private int[] slot; //of every id
+    private boolean reordered;
+    private double[] spare = new double[0]; //target of the reorder gathers
+    private int[] spareIds = new int[0];
+    private int size;
+    private long seed = ParticleGenerator.seed(); //of the next addRandom, kept in checkpoints
+
+    public ParticleStore(int capacity) {
+        int c = Math.max(capacity, 16);
+        x = new double[c];
+        y = new double[c];
+        dx = new double[c];
+        dy = new double[c];
+        mass = new double[c];
+        invMass = new double[c];
+        charge = new double[c];
+        radius = new double[c];
+        id = new int[c];
+        slot = new int[c];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    //Fastest |(dx, dy)|, for the adaptive TimeStep
+    public double maxSpeed() {
+        double most = 0;
+        for (int i = 0; i < size; i++) {
+            most = Math.max(most, dx[i] * dx[i] + dy[i] * dy[i]);
+        }
+        return Math.sqrt(most);
+    }
+
+    public double minRadius() {
+        double least = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            least = Math.min(least, radius[i]);
+        }
+        return size == 0 ? 0 : least;
+    }
+
+    //Mass is proportional to the area, same as Particle
+    public int add(double px, double py, double vx, double vy, double r, double q) {
+        if (size == x.length) grow(size + 1);
+        int i = size++;
+        id[i] = i;
+        slot[i] = i;
+        set(i, px, py, vx, vy, r, q);
+        return i;
+    }
+
+    //Overwrites slot i, which must be below size()
+    public void set(int i, double px, double py, double vx, double vy, double r, double q) {
+        x[i] = px;
+        y[i] = py;
+        dx[i] = vx;
+        dy[i] = vy;
+        radius[i] = r;
+        charge[i] = q;
+        mass[i] = r * r * Math.PI;
+        invMass[i] = 1.0 / mass[i];
+    }
+
+    //Makes the first n slots the particles, for bulk loaders that fill the arrays themselves
+    void resize(int n) {
+        ensureCapacity(n);
+        for (int i = size; i < n; i++) {
+            id[i] = i;
+            slot[i] = i;
+        }
+        size = n;
+    }
+
+    public int slot(int id) {
+        return slot[id];
+    }
+
+    //False until the first reorder(), while slot i holds particle i
+    public boolean reordered() {
+        return reordered;
+    }
+
+    //Moves the particle in slot order[k] to slot k for every k < size(), order is a permutation (MortonOrder)
+    public void reorder(int[] order) {
+        int n = size;
+        if (spare.length < x.length) spare = new double[x.length];
+        x = permute(x, order, n);
+        y = permute(y, order, n);
+        dx = permute(dx, order, n);
+        dy = permute(dy, order, n);
+        mass = permute(mass, order, n);
+        invMass = permute(invMass, order, n);
+        charge = permute(charge, order, n);
+        radius = permute(radius, order, n);
+        if (spareIds.length < id.length) spareIds = new int[id.length];
+        int[] ids = spareIds;
+        for (int k = 0; k < n; k++) {
+            ids[k] = id[order[k]];
+            slot[ids[k]] = k;
+        }
+        spareIds = id;
+        id = ids;
+        reordered = true;
+    }
+
+    //Gathers into the spare array, which becomes the new one, and keeps the old one as the next spare
+    private double[] permute(double[] values, int[] order, int n) {
+        double[] into = spare;
+        for (int k = 0; k < n; k++) {
+            into[k] = values[order[k]];
+        }
+        spare = values;
+        return into;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > x.length) grow(capacity);
+    }
+
+    private void grow(int minCapacity) {
+        int c = Math.max(minCapacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, c);
+        y = Arrays.copyOf(y, c);
+        dx = Arrays.copyOf(dx, c);
+        dy = Arrays.copyOf(dy, c);
+        mass = Arrays.copyOf(mass, c);
+        invMass = Arrays.copyOf(invMass, c);
+        charge = Arrays.copyOf(charge, c);
+        radius = Arrays.copyOf(radius, c);
+        id = Arrays.copyOf(id, c);
+        slot = Arrays.copyOf(slot, c);
+    }
+
+    //count particles from ParticleGenerator in the default 800 x 600 box
+    public void addRandom(int count) {
+        addRandom(count, SimulationEngine.DEFAULT_WIDTH, SimulationEngine.DEFAULT_HEIGHT);
+    }
+
+    public void addRandom(int count, double width, double height) {
+        int first = size;
+        resize(size + count);
+        ParticleGenerator.fromConfig().fill((i, px, py, vx, vy, r, q) -> set(first + i, px, py, vx, vy, r, q),
+                count, seed, width, height);
+        //The next call draws from a new tree
+        seed = new SplittableRandom(seed).nextLong();
+    }
+
+    public static ParticleStore generate(int count) {
+        return generate(count, SimulationEngine.DEFAULT_WIDTH, SimulationEngine.DEFAULT_HEIGHT);
+    }
+
+    public static ParticleStore generate(int count, double width, double height) {
+        ParticleStore store = new ParticleStore(count);
+        store.addRandom(count, width, height);
+        return store;
+    }
+}
@@ -0,0 +1,68 @@
+package collision;
+
+//Replaces the Allgatherv after the row loop of the headless DistributedGui run (exchange=pipelined).
+//Every rank cuts its rows into blocks and sends a block to the other ranks with Isend as soon as it is done,
+//while the receives of the other ranks' blocks are already posted, so the exchange runs behind the compute.
+//Blocks arrive in the middle of a step, so they go to a second state array that is swapped in afterwards.
+//MPJ Express has no non-blocking collectives (Iallgatherv), hence the point-to-point messages.
+public class PipelinedExchange {
+    private static final int TAG = 100; //+ block index, messages of one pair and tag stay in order
+
+    private final Communicator comm;
+    private final int rank, size, blocks, fields;
+    private final int[][] blockStart; //rows of block b of rank r: blockStart[r][b]..blockStart[r][b + 1]
+    private final Communicator.Pending[] requests;
+    private int pending;
+    private int nextBlock; //first block of this rank that is not sent yet
+
+    public PipelinedExchange(Communicator comm, int[] bounds, int blocks, int fields) {
+        this.comm = comm;
+        this.rank = comm.rank();
+        this.size = comm.size();
+        this.blocks = blocks;
+        this.fields = fields;
+        this.blockStart = new int[size][blocks + 1];
+        for (int r = 0; r < size; r++) {
+            int rows = bounds[r + 1] - bounds[r];
+            for (int b = 0; b <= blocks; b++) {
+                blockStart[r][b] = bounds[r] + (int) ((long) rows * b / blocks);
+            }
+        }
+        this.requests = new Communicator.Pending[2 * (size - 1) * blocks];
+    }
+
+    //Posts the receives of every block of the other ranks into next
+    public void begin(double[] next) {
+        pending = 0;
+        nextBlock = 0;
+        for (int r = 0; r < size; r++) {
+            if (r == rank) continue;
+            for (int b = 0; b < blocks; b++) {
+                int from = blockStart[r][b], rows = blockStart[r][b + 1] - from;
+                if (rows == 0) continue; //fewer rows than blocks, never sent
+                requests[pending++] = comm.irecv(next, from * fields, rows * fields, r, TAG + b);
+            }
+        }
+    }
+
+    //Call after row i is written to localUpdate, sends the block when i was its last row
+    public void rowDone(int i, double[] localUpdate) {
+        int[] starts = blockStart[rank];
+        while (nextBlock < blocks && i + 1 >= starts[nextBlock + 1]) {
+            int b = nextBlock++;
+            int count = (starts[b + 1] - starts[b]) * fields;
+            if (count == 0) continue;
+            int offset = (starts[b] - starts[0]) * fields;
+            for (int r = 0; r < size; r++) {
+                if (r != rank) requests[pending++] = comm.isend(localUpdate, offset, count, r, TAG + b);
+            }
+        }
+    }
+
+    //Waits for the last blocks and copies this rank's rows into next, localUpdate can be reused afterwards
+    public void finish(double[] localUpdate, double[] next) {
+        for (int k = 0; k < pending; k++) requests[k].await();
+        int[] starts = blockStart[rank];
+        System.arraycopy(localUpdate, 0, next, starts[0] * fields, (starts[blocks] - starts[0]) * fields);
+    }
+}
@@ -0,0 +1,111 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Stable LSD radix sort of non-negative long keys by a range of their bits, 8 bits per pass, on the executor of
+//the caller (not the common pool). Every pass counts the digits per thread slice, takes the prefix over
+//(digit, thread) and scatters in parallel, so the result does not depend on the thread count. Keys that are
+//equal in the sorted bits keep their order, the bits below the range can carry an index.
+public class RadixSort {
+    private static final int BITS = 8, RADIX = 1 << BITS;
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final int[][] counts;
+    private final List<Callable<Void>> countTasks = new ArrayList<>();
+    private final List<Callable<Void>> scatterTasks = new ArrayList<>();
+    private long[] from, to, spare = new long[0];
+    private int count;
+    private int shift;
+
+    public RadixSort(ExecutorService executor, int threads) {
+        this.executor = executor;
+        this.threads = executor == null ? 1 : Math.max(1, threads);
+        this.counts = new int[this.threads][RADIX];
+        for (int t = 0; t < this.threads; t++) {
+            final int tid = t;
+            countTasks.add(() -> {
+                count(tid);
+                return null;
+            });
+            scatterTasks.add(() -> {
+                scatter(tid);
+                return null;
+            });
+        }
+    }
+
+    //Sorts keys[0..n) by the bits lowBit..highBit (exclusive), in place
+    public void sort(long[] keys, int n, int lowBit, int highBit) {
+        if (spare.length < n) spare = new long[n];
+        count = n;
+        from = keys;
+        to = spare;
+        for (shift = lowBit; shift < highBit; shift += BITS) {
+            run(countTasks);
+            //Start of every (digit, thread) bucket, digits first so the slices stay in order inside a digit
+            int at = 0;
+            for (int d = 0; d < RADIX; d++) {
+                for (int t = 0; t < threads; t++) {
+                    int c = counts[t][d];
+                    counts[t][d] = at;
+                    at += c;
+                }
+            }
+            run(scatterTasks);
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        //An odd number of passes ends in the spare array
+        if (from != keys) System.arraycopy(from, 0, keys, 0, n);
+        from = to = null;
+    }
+
+    private void count(int tid) {
+        int[] c = counts[tid];
+        Arrays.fill(c, 0);
+        int first = (int) ((long) count * tid / threads), last = (int) ((long) count * (tid + 1) / threads);
+        for (int i = first; i < last; i++) {
+            c[(int) (from[i] >>> shift) & (RADIX - 1)]++;
+        }
+    }
+
+    private void scatter(int tid) {
+        int[] c = counts[tid];
+        int first = (int) ((long) count * tid / threads), last = (int) ((long) count * (tid + 1) / threads);
+        for (int i = first; i < last; i++) {
+            long k = from[i];
+            to[c[(int) (k >>> shift) & (RADIX - 1)]++] = k;
+        }
+    }
+
+    private void run(List<Callable<Void>> tasks) {
+        if (threads == 1 || count < 4096) {
+            for (int t = 0; t < threads; t++) {
+                call(tasks.get(t));
+            }
+            return;
+        }
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void call(Callable<Void> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
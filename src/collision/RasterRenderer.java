@@ -0,0 +1,217 @@
+package collision;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Draws a Snapshot by writing pixels into the int[] of a BufferedImage instead of one setColor/fillOval per particle.
+//Every particle is stamped from a pre-rendered sprite of its charge sign and diameter (ARGB, anti-aliased edge).
+//The image is cut into horizontal bands that are filled in parallel, a band only writes its own rows, and the
+//image is blitted once per frame. A counting pass first lists the particles of every band (a particle that crosses
+//a border in both), so a band only visits its own. Particles are stamped in index order, so overlaps look the
+//same as with fillOval.
+//From lodThreshold particles on (default 200000, renderer=density always) it paints a DensityMap instead.
+public class RasterRenderer {
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int POSITIVE = 0x0000FF, NEGATIVE = 0xFF0000; //Color.BLUE, Color.RED
+    private static final int SUPERSAMPLE = 4; //samples per pixel side for the edge coverage
+
+    private final ExecutorService executor;
+    private final int bands;
+    private final List<Callable<Void>> tasks = new ArrayList<>();
+    private final DensityMap density;
+    private final int lodThreshold;
+    private BufferedImage image;
+    private int[] pixels;
+    private int width, height;
+    private int[][] positiveSprites = new int[0][];
+    private int[][] negativeSprites = new int[0][];
+    private Snapshot snapshot;
+    private final int[] bandStart; //band b stamps bandItems[bandStart[b]..bandStart[b + 1])
+    private final int[] bandFill;
+    private int[] bandItems = new int[0];
+
+    public RasterRenderer(int threads) {
+        this.bands = Math.max(1, threads);
+        this.bandStart = new int[bands + 1];
+        this.bandFill = new int[bands];
+        this.executor = Executors.newFixedThreadPool(bands, r -> {
+            Thread t = new Thread(r, "raster");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int b = 0; b < bands; b++) {
+            final int band = b;
+            tasks.add(() -> {
+                band(band);
+                return null;
+            });
+        }
+        this.density = new DensityMap(executor, bands, Config.integer("lodTile", 2));
+        this.lodThreshold = Config.text("renderer", "raster").equals("density")
+                ? 0 : Config.integer("lodThreshold", 200_000);
+    }
+
+    //Renders s into the image of size w x h and draws it at 0, 0
+    public void draw(Graphics g, Snapshot s, int w, int h) {
+        if (w <= 0 || h <= 0) return;
+        render(s, w, h);
+        g.drawImage(image, 0, 0, null);
+    }
+
+    //Only fills the image, for callers that blit it themselves
+    public BufferedImage render(Snapshot s, int w, int h) {
+        if (image == null || w != width || h != height) {
+            width = w;
+            height = h;
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        if (s.size >= lodThreshold) {
+            density.render(s, pixels, w, h);
+            return image;
+        }
+        //Sprites are made here so the bands only read them
+        for (int i = 0; i < s.size; i++) {
+            int d = (int) (2 * s.radius[i]);
+            if (d >= positiveSprites.length || positiveSprites[d] == null) makeSprites(d);
+        }
+        snapshot = s;
+        bucket(s);
+        invoke();
+        return image;
+    }
+
+    //Lists the visible particles of every band in index order, counts first, then the prefix, then the indices
+    private void bucket(Snapshot s) {
+        Arrays.fill(bandStart, 0);
+        for (int i = 0; i < s.size; i++) {
+            int d = (int) (2 * s.radius[i]);
+            if (!visible(s, i, d)) continue;
+            int y0 = (int) (s.y[i] - s.radius[i]);
+            for (int b = bandOf(Math.max(y0, 0)), last = bandOf(Math.min(y0 + d, height) - 1); b <= last; b++) {
+                bandStart[b + 1]++;
+            }
+        }
+        for (int b = 0; b < bands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        if (bandItems.length < bandStart[bands]) bandItems = new int[bandStart[bands] + (bandStart[bands] >> 2)];
+        System.arraycopy(bandStart, 0, bandFill, 0, bands);
+        for (int i = 0; i < s.size; i++) {
+            int d = (int) (2 * s.radius[i]);
+            if (!visible(s, i, d)) continue;
+            int y0 = (int) (s.y[i] - s.radius[i]);
+            for (int b = bandOf(Math.max(y0, 0)), last = bandOf(Math.min(y0 + d, height) - 1); b <= last; b++) {
+                bandItems[bandFill[b]++] = i;
+            }
+        }
+    }
+
+    //Same corner and size as fillOval((int) (x - r), (int) (y - r), (int) (2 * r), (int) (2 * r))
+    private boolean visible(Snapshot s, int i, int d) {
+        if (d <= 0) return false;
+        int y0 = (int) (s.y[i] - s.radius[i]);
+        int x0 = (int) (s.x[i] - s.radius[i]);
+        return y0 < height && y0 + d > 0 && x0 < width && x0 + d > 0;
+    }
+
+    //The band that holds row, 0 <= row < height
+    private int bandOf(int row) {
+        int b = (int) ((long) row * bands / height);
+        while (b + 1 < bands && top(b + 1) <= row) b++;
+        while (top(b) > row) b--;
+        return b;
+    }
+
+    private int top(int b) {
+        return (int) ((long) height * b / bands);
+    }
+
+    private void band(int b) {
+        int top = top(b);
+        int bottom = top(b + 1);
+        Arrays.fill(pixels, top * width, bottom * width, BACKGROUND);
+        Snapshot s = snapshot;
+        double[] xs = s.x, ys = s.y, radius = s.radius, charge = s.charge;
+        for (int k = bandStart[b], end = bandStart[b + 1]; k < end; k++) {
+            int i = bandItems[k];
+            double r = radius[i];
+            int d = (int) (2 * r);
+            int y0 = (int) (ys[i] - r);
+            int x0 = (int) (xs[i] - r);
+            stamp(charge[i] >= 1 ? positiveSprites[d] : negativeSprites[d], d, x0, y0, top, bottom);
+        }
+    }
+
+    private void stamp(int[] sprite, int d, int x0, int y0, int top, int bottom) {
+        int rowFrom = Math.max(y0, top), rowTo = Math.min(y0 + d, bottom);
+        int colFrom = Math.max(x0, 0), colTo = Math.min(x0 + d, width);
+        for (int py = rowFrom; py < rowTo; py++) {
+            int spriteRow = (py - y0) * d - x0;
+            int imageRow = py * width;
+            for (int px = colFrom; px < colTo; px++) {
+                int argb = sprite[spriteRow + px];
+                int a = argb >>> 24;
+                if (a == 255) {
+                    pixels[imageRow + px] = argb & 0xFFFFFF;
+                } else if (a != 0) {
+                    pixels[imageRow + px] = blend(argb, pixels[imageRow + px], a);
+                }
+            }
+        }
+    }
+
+    private static int blend(int colour, int under, int a) {
+        int na = 255 - a;
+        int r = (((colour >> 16) & 0xFF) * a + ((under >> 16) & 0xFF) * na) / 255;
+        int g = (((colour >> 8) & 0xFF) * a + ((under >> 8) & 0xFF) * na) / 255;
+        int b = ((colour & 0xFF) * a + (under & 0xFF) * na) / 255;
+        return r << 16 | g << 8 | b;
+    }
+
+    //Disc of diameter d, alpha is the share of SUPERSAMPLE x SUPERSAMPLE samples inside the circle
+    private void makeSprites(int d) {
+        if (d >= positiveSprites.length) {
+            positiveSprites = Arrays.copyOf(positiveSprites, d + 1);
+            negativeSprites = Arrays.copyOf(negativeSprites, d + 1);
+        }
+        int[] positive = new int[d * d];
+        int[] negative = new int[d * d];
+        double centre = d / 2.0, r2 = centre * centre;
+        for (int py = 0; py < d; py++) {
+            for (int px = 0; px < d; px++) {
+                int inside = 0;
+                for (int sy = 0; sy < SUPERSAMPLE; sy++) {
+                    for (int sx = 0; sx < SUPERSAMPLE; sx++) {
+                        double dx = px + (sx + 0.5) / SUPERSAMPLE - centre;
+                        double dy = py + (sy + 0.5) / SUPERSAMPLE - centre;
+                        if (dx * dx + dy * dy <= r2) inside++;
+                    }
+                }
+                int a = inside * 255 / (SUPERSAMPLE * SUPERSAMPLE);
+                positive[py * d + px] = a << 24 | POSITIVE;
+                negative[py * d + px] = a << 24 | NEGATIVE;
+            }
+        }
+        positiveSprites[d] = positive;
+        negativeSprites[d] = negative;
+    }
+
+    private void invoke() {
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package collision;
+
+//Reference version of ForceRow, the same arithmetic and order as the original loops
+public class ScalarForceRow implements ForceRow {
+
+    @Override
+    public void symmetric(double[] x, double[] y, double[] q, int from, int to,
+                          double xi, double yi, double kqi, double cutoff2, double softening,
+                          double[] bx, double[] by, double[] out) {
+        double fxi = 0, fyi = 0;
+        for (int j = from; j < to; j++) {
+            double dx = xi - x[j];
+            double dy = yi - y[j];
+            double r2 = dx * dx + dy * dy;
+            if (r2 > 0 && r2 < cutoff2) {
+                double dist2 = r2 + softening;
+                double f = kqi * q[j] / (dist2 * Math.sqrt(dist2));
+                fxi += f * dx;
+                fyi += f * dy;
+                bx[j] -= f * dx;
+                by[j] -= f * dy;
+            }
+        }
+        out[0] += fxi;
+        out[1] += fyi;
+    }
+
+    @Override
+    public int untilContact(double[] x, double[] y, double[] q, int from, int to,
+                            double xi, double yi, double kqi, double mass, double cutoff, double contact, double softening,
+                            double[] out) {
+        for (int j = from; j < to; j++) {
+            double dx = x[j] - xi;
+            double dy = y[j] - yi;
+            double distSq = dx * dx + dy * dy + softening;
+            double dist = Math.sqrt(distSq);
+            if (dist > cutoff) continue;
+            if (dist < contact) return j;
+            double invDist3 = 1.0 / (distSq * dist);
+            double f = kqi * q[j] * invDist3;
+            double fx = f * dx / dist;
+            double fy = f * dy / dist;
+            out[0] += fx / mass;
+            out[1] += fy / mass;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,326 @@
+package collision;
+
+import java.util.Arrays;
+
+//Sequential physics of Gui: walls, cutoff Coulomb forces and pair collisions on one thread
+public class SequentialEngine implements SimulationEngine {
+    private final ParticleStore particles;
+    private double width;
+    private double height;
+    private static final double CUTOFF = 200.0;
+    private final boolean useCellList = Config.flag("cellList", true);
+    //Overlap separation moves particles while a row is processed, so the search reaches a bit past the cutoff
+    private static final double SEARCH_MARGIN = 12.0;
+    private final CellList cells = new CellList(CUTOFF + SEARCH_MARGIN, Config.real("cellSize", 50.0));
+    //Positions the cells were built from, and the farthest any pushed j has moved from its position there
+    private double[] binX = new double[0], binY = new double[0];
+    private double drift;
+    //-Dcollision.forces=barnes-hut drops the cutoff and approximates all pairs with a quadtree
+    private static final double CONTACT_DISTANCE = 12.0;
+    private final BarnesHut barnesHut = Config.text("forces", "cutoff").equals("barnes-hut")
+            ? new BarnesHut(Config.real("theta", 0.5), 200.0, 2.0) : null;
+    private final CellList contacts = new CellList(CONTACT_DISTANCE + SEARCH_MARGIN);
+    //neighbours=verlet keeps the pairs (the contact pairs with barnes-hut) across steps instead of the cell lists
+    private final VerletList verlet = VerletList.fromConfig(
+            (barnesHut == null ? CUTOFF : CONTACT_DISTANCE) + SEARCH_MARGIN, null, 1);
+    private double[] fx = new double[0];
+    private double[] fy = new double[0];
+    private int[] neighbours = new int[0];
+    private final TimeStep clock = TimeStep.fromConfig();
+    private double dt;
+    private double[] ax = new double[0]; //force accelerations of the step, only for timestep=adaptive
+    private double[] ay = new double[0];
+    private static final int MOVE = 0, PAIRS = 1;
+    private final StepProfile profile = new StepProfile("sequential", 0, "move", "pairs");
+    private long steps;
+    //reorder=k sorts the store by Morton key every k steps, counted in the move phase
+    private final int reorderEvery = MortonOrder.every();
+    private final MortonOrder morton = reorderEvery > 0 ? new MortonOrder(null, 1) : null;
+
+    public SequentialEngine(ParticleStore particles, double width, double height) {
+        this.particles = particles;
+        setBounds(width, height);
+    }
+
+    @Override
+    public ParticleStore particles() {
+        return particles;
+    }
+
+    @Override
+    public void setBounds(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public TimeStep timeStep() {
+        return clock;
+    }
+
+    @Override
+    public StepProfile profile() {
+        return profile;
+    }
+
+    @Override
+    public void step() {
+        ParticleStore s = particles;
+        int n = s.size();
+        profile.step(steps++);
+        profile.begin();
+        dt = clock.adaptive() ? clock.next(s.maxSpeed(), s.minRadius()) : clock.next(0, 0);
+        if (morton != null && (steps - 1) % reorderEvery == 0) {
+            s.reorder(morton.order(s.x, s.y, n));
+            if (verlet != null) verlet.invalidate();
+        }
+        // First, move particles and handle wall collisions
+        for (int i = 0; i < n; i++) {
+            double r = s.radius[i];
+            double newX = s.x[i] + s.dx[i] * dt;
+            double newY = s.y[i] + s.dy[i] * dt;
+
+            //Wall collision with proper bouncing
+            //Add some energy loss
+            if (newX - r <= 0 || newX + r >= width) {
+                s.dx[i] = -s.dx[i] * 0.8;
+                newX = Math.max(r, Math.min(width - r, newX));
+            }
+            if (newY - r <= 0 || newY + r >= height) {
+                s.dy[i] = -s.dy[i] * 0.8;
+                newY = Math.max(r, Math.min(height - r, newY));
+            }
+
+
+            s.x[i] = newX;
+            s.y[i] = newY;
+        }
+        profile.lap(MOVE);
+
+        //Handle particle-to-particle collisions
+        if (clock.adaptive() && barnesHut == null && ax.length < n) {
+            ax = new double[s.capacity()];
+            ay = new double[s.capacity()];
+        }
+        if (barnesHut != null) {
+            resolvePairsBarnesHut(s);
+        } else if (verlet != null) {
+            resolvePairsVerlet(s);
+        } else if (useCellList) {
+            resolvePairsCellList(s);
+        } else {
+            resolvePairsBruteForce(s);
+        }
+        if (clock.adaptive() && barnesHut == null) {
+            double most = 0;
+            for (int i = 0; i < n; i++) {
+                most = Math.max(most, ax[i] * ax[i] + ay[i] * ay[i]);
+                ax[i] = 0;
+                ay[i] = 0;
+            }
+            clock.accelerated(Math.sqrt(most));
+        }
+        profile.lap(PAIRS);
+    }
+
+    //Reference loop, checks every pair
+    private void resolvePairsBruteForce(ParticleStore s) {
+        for (int i = 0; i < s.size(); i++) {
+            for (int j = i + 1; j < s.size(); j++) {
+                interact(s, i, j);
+            }
+        }
+    }
+
+    //Only visits pairs from neighbouring cells, in the same i/j order as the brute-force loop.
+    //A pair within the cutoff is listed while i and j together moved less than the margin from where they were
+    //binned and i less than the margin from where its row was queried (j only moves at its own turn). Past that
+    //the cells are built again before a row, or the rest of the row falls back to the j loop, so the result is
+    //the brute-force one bit for bit.
+    private void resolvePairsCellList(ParticleStore s) {
+        int n = s.size();
+        if (neighbours.length < n) neighbours = new int[n];
+        bin(s, n);
+
+        for (int i = 0; i < n; i++) {
+            if (moved(s, i) + drift >= SEARCH_MARGIN) bin(s, n);
+            double queryX = s.x[i], queryY = s.y[i];
+            int found = cells.higherNeighbours(i, neighbours);
+            for (int k = 0; k < found; k++) {
+                int j = neighbours[k];
+                if (!interact(s, i, j)) continue;
+                drift = Math.max(drift, moved(s, j));
+                double qx = s.x[i] - queryX, qy = s.y[i] - queryY;
+                if (moved(s, i) + drift >= SEARCH_MARGIN || qx * qx + qy * qy >= SEARCH_MARGIN * SEARCH_MARGIN) {
+                    for (j++; j < n; j++) {
+                        interact(s, i, j);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private void bin(ParticleStore s, int n) {
+        if (binX.length < n) {
+            binX = new double[s.capacity()];
+            binY = new double[s.capacity()];
+        }
+        System.arraycopy(s.x, 0, binX, 0, n);
+        System.arraycopy(s.y, 0, binY, 0, n);
+        drift = 0;
+        cells.build(s.x, s.y, n);
+    }
+
+    //Distance of particle i from where it was binned
+    private double moved(ParticleStore s, int i) {
+        double dx = s.x[i] - binX[i], dy = s.y[i] - binY[i];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    //Same pairs and order as the cell list, from lists that are only rebuilt when a particle moved skin / 2
+    private void resolvePairsVerlet(ParticleStore s) {
+        int n = s.size();
+        verlet.update(s.x, s.y, n);
+        int[] list = verlet.neighbours();
+        for (int i = 0; i < n; i++) {
+            for (int k = verlet.start(i), end = verlet.end(i); k < end; k++) {
+                interact(s, i, list[k]);
+            }
+        }
+    }
+
+    //Uncut Coulomb forces from the quadtree, then only the contact pairs are visited
+    private void resolvePairsBarnesHut(ParticleStore s) {
+        int n = s.size();
+        if (fx.length < n) {
+            fx = new double[n];
+            fy = new double[n];
+            neighbours = new int[n];
+        }
+        Arrays.fill(fx, 0, n, 0.0);
+        Arrays.fill(fy, 0, n, 0.0);
+        barnesHut.compute(s.x, s.y, s.charge, n, fx, fy, null, 1);
+        double most = 0;
+        for (int i = 0; i < n; i++) {
+            double aX = fx[i] * s.invMass[i], aY = fy[i] * s.invMass[i];
+            s.dx[i] += aX * dt;
+            s.dy[i] += aY * dt;
+            most = Math.max(most, aX * aX + aY * aY);
+        }
+        clock.accelerated(Math.sqrt(most));
+
+        int[] list = neighbours;
+        if (verlet != null) {
+            verlet.update(s.x, s.y, n);
+            list = verlet.neighbours();
+        } else {
+            contacts.build(s.x, s.y, n);
+        }
+        for (int i = 0; i < n; i++) {
+            int from = 0, found;
+            if (verlet != null) {
+                from = verlet.start(i);
+                found = verlet.end(i);
+            } else {
+                found = contacts.higherNeighbours(i, neighbours);
+            }
+            for (int k = from; k < found; k++) {
+                int j = list[k];
+                double dx = s.x[i] - s.x[j];
+                double dy = s.y[i] - s.y[j];
+                collide(s, i, j, Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+    }
+
+    //True when the overlap push moved i and j
+    private boolean interact(ParticleStore s, int i, int j) {
+        //ne koristam funkcija deka mora da vratam i dx i dy i dist^2
+        double dx = s.x[i] - s.x[j];
+        double dy = s.y[i] - s.y[j];
+        double r2 = dx * dx + dy * dy;
+
+        if (r2 > 0 && r2 < CUTOFF * CUTOFF) { //Avoid division by zero
+            // Calculate electrostatic force using Coulomb's law
+            double k = 200.0;
+            double SOFTENING = 2.0; //Prevents force from exploding at very close range
+
+            double dist2 = r2 + SOFTENING;
+            double distInv = Math.sqrt(dist2);
+            double invDist3 = 1.0 / (dist2 * distInv);
+
+            //Edinechen vektor od p2 do p1
+            double ux = dx / distInv;
+            double uy = dy / distInv;
+            double f = k * s.charge[i] * s.charge[j] * invDist3;
+
+            double fx = f * ux;
+            double fy = f * uy;
+
+            //F = ma znachi a = F/m
+            s.dx[i] += fx * s.invMass[i] * dt;
+            s.dy[i] += fy * s.invMass[i] * dt;
+            s.dx[j] -= fx * s.invMass[j] * dt;
+            s.dy[j] -= fy * s.invMass[j] * dt;
+            if (ax.length > 0) {
+                ax[i] += fx * s.invMass[i];
+                ay[i] += fy * s.invMass[i];
+                ax[j] -= fx * s.invMass[j];
+                ay[j] -= fy * s.invMass[j];
+            }
+
+            //Ova e logika za overlap, preku formula za circles
+            return collide(s, i, j, Math.sqrt(r2));
+        }
+        return false;
+    }
+
+    private boolean collide(ParticleStore s, int i, int j, double dist) {
+        if (dist <= s.radius[i] + s.radius[j] && dist > 0) {
+
+            double dx = s.x[j] - s.x[i];
+            double dy = s.y[j] - s.y[i];
+            double normalX = dx / dist;
+            double normalY = dy / dist;
+
+
+            double overlap = s.radius[i] + s.radius[j] - dist;
+            double separationX = normalX * (overlap / 2.0);
+            double separationY = normalY * (overlap / 2.0);
+
+            s.x[i] -= separationX;
+            s.y[i] -= separationY;
+            s.x[j] += separationX;
+            s.y[j] += separationY;
+
+
+            double relativeVelX = s.dx[j] - s.dx[i];
+            double relativeVelY = s.dy[j] - s.dy[i];
+
+
+            double relativeVelAlongNormal = relativeVelX * normalX + relativeVelY * normalY;
+
+
+            if (relativeVelAlongNormal > 0) {
+                return true;
+            }
+
+            //impuls i masa za particles za da bide realistichno
+            double restitution = 0.8;
+            double impulseScalar = -(1 + restitution) * relativeVelAlongNormal;
+            impulseScalar /= (s.invMass[i] + s.invMass[j]);
+
+
+            double impulseX = impulseScalar * normalX;
+            double impulseY = impulseScalar * normalY;
+
+            s.dx[i] -= impulseX * s.invMass[i];
+            s.dy[i] -= impulseY * s.invMass[i];
+            s.dx[j] += impulseX * s.invMass[j];
+            s.dy[j] += impulseY * s.invMass[j];
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package collision;
+
+//Physics of one simulation without any Swing/AWT, the domain is [0, width] x [0, height].
+//Headless runs call step() in a loop, the panels only draw particles() and pass their size to setBounds.
+public interface SimulationEngine {
+    int DEFAULT_WIDTH = 800, DEFAULT_HEIGHT = 600;
+
+    //Moves the particles by one step, bounces them off the walls and resolves the pairs
+    void step();
+
+    //Live state, only touch it between steps
+    ParticleStore particles();
+
+    void setBounds(double width, double height);
+
+    //dt of the steps and the simulated time
+    TimeStep timeStep();
+
+    //Per-phase step timing, null for an engine without one
+    default StepProfile profile() {
+        return null;
+    }
+
+    //Releases threads, the engine cannot step afterwards
+    default void close() {
+    }
+
+    //Runs cycles steps and returns the run time in ms
+    static long run(SimulationEngine engine, int cycles) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < cycles; i++) {
+            engine.step();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    //Headless loop of Gui, ParallelGui and Headless from step from up to cycles, or until the simulated time
+    //reaches until=T, with the checkpoints that are due (Checkpoint) and the trajectory (TrajectoryWriter)
+    //when configured. Returns the run time in ms.
+    static long run(SimulationEngine engine, long from, int cycles, double width, double height) {
+        TrajectoryWriter trajectory = TrajectoryWriter.fromConfig();
+        long start = System.currentTimeMillis();
+        if (trajectory != null) trajectory.record(from, engine.particles());
+        for (long step = from; step < cycles; step++) {
+            engine.step();
+            //Reaching until ends the run, so that step gets the final checkpoint
+            long last = engine.timeStep().reached() ? step + 1 : cycles;
+            if (Checkpoint.due(step + 1, last)) {
+                Checkpoint.write(engine.particles(), step + 1, engine.timeStep(), width, height);
+            }
+            if (trajectory != null) trajectory.record(step + 1, engine.particles());
+            if (last == step + 1) break;
+        }
+        long time = System.currentTimeMillis() - start;
+        if (trajectory != null) trajectory.close();
+        if (engine.profile() != null) engine.profile().report();
+        return time;
+    }
+}
@@ -0,0 +1,87 @@
+package collision;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+//Steps an engine on its own thread instead of in the Swing Timer (-Dcollision.background=true), so the step
+//rate no longer depends on the repaint rate and a slow step does not freeze the window.
+//stepsPerFrame = 0 steps as fast as possible, k > 0 does k steps per 60 Hz frame. A snapshot is published
+//after every frame's worth of steps, not after every step, the panels never see more than 60 a second anyway.
+public class SimulationThread {
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    private final SimulationEngine engine;
+    private final SnapshotBuffer snapshots;
+    private final int cycles;
+    private final int stepsPerFrame;
+    private final LongConsumer onFinished;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile long step;
+    private volatile boolean stopped;
+
+    //onFinished gets the run time in ms, on the simulation thread
+    public SimulationThread(SimulationEngine engine, SnapshotBuffer snapshots, int cycles, int stepsPerFrame,
+                            LongConsumer onFinished) {
+        this.engine = engine;
+        this.snapshots = snapshots;
+        this.cycles = cycles;
+        this.stepsPerFrame = stepsPerFrame;
+        this.onFinished = onFinished;
+        this.thread = new Thread(this::run, "simulation");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    //Runs task on the simulation thread between two steps, for changes to the engine (add particles, resize)
+    public void submit(Runnable task) {
+        tasks.add(task);
+    }
+
+    public long step() {
+        return step;
+    }
+
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        long done = 0;
+        long nextFrame = System.nanoTime();
+        long lastPublish = nextFrame - FRAME_NANOS;
+        while (done < cycles && !stopped) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+
+            long batch = stepsPerFrame > 0 ? Math.min(stepsPerFrame, cycles - done) : 1;
+            for (long k = 0; k < batch; k++) {
+                engine.step();
+            }
+            done += batch;
+            step = done;
+
+            long now = System.nanoTime();
+            if (stepsPerFrame > 0 || now - lastPublish >= FRAME_NANOS || done == cycles) {
+                snapshots.back().copyFrom(engine.particles(), done);
+                snapshots.publish();
+                lastPublish = now;
+            }
+            if (stepsPerFrame > 0) {
+                nextFrame += FRAME_NANOS;
+                long wait;
+                while ((wait = nextFrame - System.nanoTime()) > 0 && !stopped) LockSupport.parkNanos(wait);
+                //A frame that took too long does not make the next ones run faster to catch up
+                if (wait < -FRAME_NANOS) nextFrame = System.nanoTime();
+            }
+        }
+        onFinished.accept(System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,57 @@
+package collision;
+
+//Copy of what the panels draw. The simulation thread fills it and hands it over through a SnapshotBuffer,
+//after that only the reader looks at it until it gives it back, so the EDT reads it without locking.
+public class Snapshot {
+    public double[] x = new double[0];
+    public double[] y = new double[0];
+    public double[] radius = new double[0];
+    public double[] charge = new double[0];
+    public int size;
+    public long step;
+
+    public void copyFrom(ParticleStore s, long step) {
+        int n = s.size();
+        ensure(n);
+        if (s.reordered()) {
+            //Back in id order, so a reordered store draws the same as before
+            int[] id = s.id;
+            for (int i = 0; i < n; i++) {
+                x[id[i]] = s.x[i];
+                y[id[i]] = s.y[i];
+                radius[id[i]] = s.radius[i];
+                charge[id[i]] = s.charge[i];
+            }
+        } else {
+            System.arraycopy(s.x, 0, x, 0, n);
+            System.arraycopy(s.y, 0, y, 0, n);
+            System.arraycopy(s.radius, 0, radius, 0, n);
+            System.arraycopy(s.charge, 0, charge, 0, n);
+        }
+        size = n;
+        this.step = step;
+    }
+
+    //Rows of x, y, ... with the given stride as DistributedGui keeps them, every particle has radius r
+    public void copyFrom(double[] flat, int stride, double[] charges, double r, int n, long step) {
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            x[i] = flat[i * stride];
+            y[i] = flat[i * stride + 1];
+            radius[i] = r;
+        }
+        System.arraycopy(charges, 0, charge, 0, n);
+        size = n;
+        this.step = step;
+    }
+
+    //The arrays are only replaced when the particle count grows
+    private void ensure(int n) {
+        if (x.length >= n) return;
+        int c = Math.max(n, x.length + (x.length >> 1));
+        x = new double[c];
+        y = new double[c];
+        radius = new double[c];
+        charge = new double[c];
+    }
+}
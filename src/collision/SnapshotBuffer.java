@@ -0,0 +1,34 @@
+package collision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Lock-free triple buffer between one writer (the simulation) and one reader (the EDT).
+//The writer fills back() and publish() swaps it with the middle slot, latest() swaps a newer middle slot
+//into the reader's front. Neither side ever waits, the writer never touches the snapshot the reader holds
+//and the reader always gets the newest published one. Two slots would make one side wait for the other.
+public class SnapshotBuffer {
+    private static final int INDEX = 3, FRESH = 4;
+
+    private final Snapshot[] slots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger middle = new AtomicInteger(1); //slot index, | FRESH when not read yet
+    private int back = 2; //writer only
+    private int front = 0; //reader only
+
+    //Writer: the slot to fill next
+    public Snapshot back() {
+        return slots[back];
+    }
+
+    //Writer: hands back() to the reader, the swap also publishes everything written to it
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    //Reader: the newest published snapshot, valid until the next call
+    public Snapshot latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return slots[front];
+    }
+}
@@ -0,0 +1,330 @@
+package collision;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+//Communicator over plain TCP (java.nio), no MPJ runtime needed. Every pair of ranks shares one SocketChannel.
+//A message is an 8 byte header (tag, count) and count doubles, written with one gathering write from direct
+//buffers. One reader thread per peer drains its channel into an inbox, so a send never waits for the receiver
+//to post its recv and two ranks sending to each other at the same time cannot fill both TCP windows and hang.
+//Collectives are built from the point-to-point messages: a binomial tree for bcast and a ring for allgatherv.
+//The arrays the messages wait in are pooled per source and handed back by recv, so a steady exchange allocates nothing.
+public class SocketCommunicator implements Communicator {
+    private static final int HEADER = 8;
+    private static final int TAG_BCAST = -1, TAG_ALLGATHER = -2, TAG_BARRIER = -3;
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+
+    private final int rank;
+    private final int size;
+    private final SocketChannel[] peers;
+    private final ByteBuffer[][] outgoing; //header and payload of every peer, guarded by the channel
+    private final DoubleBuffer[] outgoingDoubles; //view of the payload
+    private final Inbox[] inboxes;
+    private final ServerSocketChannel server;
+
+    private static class Message {
+        int tag;
+        int count;
+        double[] data = new double[0];
+    }
+
+    //Messages of one source, in arrival order, matched by tag, and the taken ones for reuse
+    private static class Inbox {
+        private final ArrayDeque<Message> messages = new ArrayDeque<>();
+        private final ArrayDeque<Message> free = new ArrayDeque<>();
+        private IOException failure;
+
+        //An unused message with room for count doubles, filled by the caller and then add()ed
+        synchronized Message obtain(int tag, int count) {
+            Message m = free.isEmpty() ? new Message() : free.pop();
+            if (m.data.length < count) m.data = new double[count];
+            m.tag = tag;
+            m.count = count;
+            return m;
+        }
+
+        synchronized void recycle(Message m) {
+            free.push(m);
+        }
+
+        synchronized void add(Message m) {
+            messages.add(m);
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            failure = e;
+            notifyAll();
+        }
+
+        synchronized Message take(int tag) {
+            while (true) {
+                for (Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+                    Message m = it.next();
+                    if (m.tag == tag) {
+                        it.remove();
+                        return m;
+                    }
+                }
+                if (failure != null) throw new UncheckedIOException(failure);
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private SocketCommunicator(int rank, int size, ServerSocketChannel server, SocketChannel[] peers) {
+        this.rank = rank;
+        this.size = size;
+        this.server = server;
+        this.peers = peers;
+        this.outgoing = new ByteBuffer[size][];
+        this.outgoingDoubles = new DoubleBuffer[size];
+        this.inboxes = new Inbox[size];
+        for (int r = 0; r < size; r++) {
+            inboxes[r] = new Inbox();
+            if (r == rank) continue;
+            outgoing[r] = new ByteBuffer[]{
+                    ByteBuffer.allocateDirect(HEADER).order(ByteOrder.LITTLE_ENDIAN),
+                    ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN)
+            };
+            outgoingDoubles[r] = outgoing[r][1].asDoubleBuffer();
+            SocketChannel channel = peers[r];
+            Inbox inbox = inboxes[r];
+            Thread reader = new Thread(() -> read(channel, inbox), "socket-comm-" + rank + "<-" + r);
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    //hosts is "host:port,host:port,..." with one entry per rank, empty means localhost with ports basePort + rank.
+    //Every rank listens on its own address, connects to the lower ranks and accepts the higher ones.
+    public static SocketCommunicator connect(int rank, int size, String hosts, int basePort) {
+        InetSocketAddress[] addresses = new InetSocketAddress[size];
+        String[] entries = hosts.isEmpty() ? new String[0] : hosts.split(",");
+        if (entries.length != 0 && entries.length != size) {
+            throw new IllegalArgumentException("hosts needs " + size + " entries, got " + entries.length);
+        }
+        for (int r = 0; r < size; r++) {
+            if (entries.length == 0) {
+                addresses[r] = new InetSocketAddress("localhost", basePort + r);
+            } else {
+                String entry = entries[r].trim();
+                int colon = entry.lastIndexOf(':');
+                addresses[r] = new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1)));
+            }
+        }
+
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(addresses[rank].getPort()), size);
+            SocketChannel[] peers = new SocketChannel[size];
+            ByteBuffer handshake = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int r = 0; r < rank; r++) {
+                SocketChannel channel = connectWithRetry(addresses[r]);
+                handshake.clear();
+                handshake.putInt(rank).flip();
+                while (handshake.hasRemaining()) channel.write(handshake);
+                peers[r] = channel;
+            }
+            for (int accepted = rank + 1; accepted < size; accepted++) {
+                SocketChannel channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                handshake.clear();
+                readFully(channel, handshake);
+                handshake.flip();
+                peers[handshake.getInt()] = channel;
+            }
+            return new SocketCommunicator(rank, size, server, peers);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static SocketChannel connectWithRetry(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (true) {
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                return channel;
+            } catch (IOException e) {
+                //The peer may not be listening yet
+                if (System.currentTimeMillis() > deadline) throw e;
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ie);
+                }
+            }
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Peer closed the connection");
+        }
+    }
+
+    //Reader thread of one peer
+    private static void read(SocketChannel channel, Inbox inbox) {
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer payload = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        DoubleBuffer doubles = payload.asDoubleBuffer();
+        try {
+            while (true) {
+                header.clear();
+                readFully(channel, header);
+                header.flip();
+                int tag = header.getInt();
+                int count = header.getInt();
+                if (payload.capacity() < count * 8) {
+                    payload = ByteBuffer.allocateDirect(Math.max(count * 8, payload.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                    doubles = payload.asDoubleBuffer();
+                }
+                payload.clear().limit(count * 8);
+                readFully(channel, payload);
+                Message m = inbox.obtain(tag, count);
+                doubles.clear();
+                doubles.get(m.data, 0, count);
+                inbox.add(m);
+            }
+        } catch (IOException e) {
+            inbox.fail(e);
+        }
+    }
+
+    @Override
+    public int rank() {
+        return rank;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void send(double[] buf, int offset, int count, int dest, int tag) {
+        if (dest == rank) {
+            Message m = inboxes[rank].obtain(tag, count);
+            System.arraycopy(buf, offset, m.data, 0, count);
+            inboxes[rank].add(m);
+            return;
+        }
+        SocketChannel channel = peers[dest];
+        synchronized (channel) {
+            ByteBuffer[] buffers = outgoing[dest];
+            if (buffers[1].capacity() < count * 8) {
+                buffers[1] = ByteBuffer.allocateDirect(Math.max(count * 8, buffers[1].capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                outgoingDoubles[dest] = buffers[1].asDoubleBuffer();
+            }
+            buffers[0].clear();
+            buffers[0].putInt(tag).putInt(count).flip();
+            buffers[1].clear();
+            outgoingDoubles[dest].clear();
+            outgoingDoubles[dest].put(buf, offset, count);
+            buffers[1].limit(count * 8);
+            try {
+                while (buffers[1].hasRemaining() || buffers[0].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void recv(double[] buf, int offset, int count, int source, int tag) {
+        Message m = inboxes[source].take(tag);
+        if (m.count > count) {
+            throw new IllegalStateException("Message of " + m.count + " doubles from rank " + source + " does not fit in " + count);
+        }
+        System.arraycopy(m.data, 0, buf, offset, m.count);
+        inboxes[source].recycle(m);
+    }
+
+    //The reader threads always drain the channels, so a send completes without the receiver
+    @Override
+    public Pending isend(double[] buf, int offset, int count, int dest, int tag) {
+        send(buf, offset, count, dest, tag);
+        return () -> { };
+    }
+
+    @Override
+    public Pending irecv(double[] buf, int offset, int count, int source, int tag) {
+        return () -> recv(buf, offset, count, source, tag);
+    }
+
+    //Binomial tree, log2(size) rounds
+    @Override
+    public void bcast(double[] buf, int offset, int count, int root) {
+        int virtual = (rank - root + size) % size;
+        int mask = 1;
+        while (mask < size) {
+            if ((virtual & mask) != 0) {
+                recv(buf, offset, count, (virtual - mask + root) % size, TAG_BCAST);
+                break;
+            }
+            mask <<= 1;
+        }
+        mask >>= 1;
+        while (mask > 0) {
+            if (virtual + mask < size) send(buf, offset, count, (virtual + mask + root) % size, TAG_BCAST);
+            mask >>= 1;
+        }
+    }
+
+    //Ring, every block travels size - 1 hops and every link carries one block per round
+    @Override
+    public void allgatherv(double[] send, int sendOffset, int sendCount, double[] recv, int[] counts, int[] displs) {
+        if (send != recv || sendOffset != displs[rank]) {
+            System.arraycopy(send, sendOffset, recv, displs[rank], sendCount);
+        }
+        int right = (rank + 1) % size, left = (rank - 1 + size) % size;
+        for (int round = 0; round < size - 1; round++) {
+            int outBlock = (rank - round + size) % size;
+            int inBlock = (rank - round - 1 + size) % size;
+            send(recv, displs[outBlock], counts[outBlock], right, TAG_ALLGATHER);
+            recv(recv, displs[inBlock], counts[inBlock], left, TAG_ALLGATHER);
+        }
+    }
+
+    //Waits until every rank got here, then closes the channels
+    @Override
+    public void close() {
+        double[] token = new double[1];
+        for (int r = 0; r < size; r++) {
+            if (r != rank) send(token, 0, 0, r, TAG_BARRIER);
+        }
+        for (int r = 0; r < size; r++) {
+            if (r != rank) recv(token, 0, 0, r, TAG_BARRIER);
+        }
+        try {
+            for (SocketChannel channel : peers) {
+                if (channel != null) channel.close();
+            }
+            server.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
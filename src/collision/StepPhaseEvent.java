@@ -0,0 +1,32 @@
+package collision;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+//One phase of one step, committed by StepProfile while a flight recording is running, for example
+//java -XX:StartFlightRecording=filename=run.jfr ... then jfr print --events collision.StepPhase run.jfr
+@Name("collision.StepPhase")
+@Label("Step Phase")
+@Category("Collision")
+@StackTrace(false)
+class StepPhaseEvent extends Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Rank")
+    int rank;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Step")
+    long step;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+}
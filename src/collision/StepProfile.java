@@ -0,0 +1,111 @@
+package collision;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import jdk.jfr.EventType;
+
+//Per-phase timing of a step loop. begin() marks the start of a step, every lap(phase) records the time since
+//the previous mark in that phase's LatencyHistogram and, while a flight recording takes them, as a
+//StepPhaseEvent. Two System.nanoTime calls per phase, on by default, -Dcollision.profile=false turns it off.
+//report() prints p50/p99/max per phase and with profileCsv=path also writes them as CSV (other ranks than 0
+//write path with -rank<r> before the extension).
+public class StepProfile {
+    private static final EventType EVENT = EventType.getEventType(StepPhaseEvent.class);
+
+    private final String engine;
+    private final int rank;
+    private final String[] phases;
+    private final LatencyHistogram[] histograms;
+    private final boolean enabled = Config.flag("profile", true);
+    private long mark;
+    private long step;
+
+    public StepProfile(String engine, int rank, String... phases) {
+        this.engine = engine;
+        this.rank = rank;
+        this.phases = phases;
+        this.histograms = new LatencyHistogram[phases.length];
+        for (int i = 0; i < phases.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    public void begin() {
+        if (enabled) mark = System.nanoTime();
+    }
+
+    public void lap(int phase) {
+        if (!enabled) return;
+        long now = System.nanoTime();
+        long nanos = now - mark;
+        histograms[phase].record(nanos);
+        if (EVENT.isEnabled()) {
+            StepPhaseEvent event = new StepPhaseEvent();
+            event.engine = engine;
+            event.rank = rank;
+            event.phase = phases[phase];
+            event.step = step;
+            event.nanos = nanos;
+            event.commit();
+        }
+        mark = now;
+    }
+
+    //The step the next laps belong to, for the events
+    public void step(long step) {
+        this.step = step;
+    }
+
+    public LatencyHistogram histogram(int phase) {
+        return histograms[phase];
+    }
+
+    public void report() {
+        report(this);
+    }
+
+    //Prints every profile and writes them to one CSV, a view passes its paint profile with the engine's
+    public static void report(StepProfile... profiles) {
+        if (profiles.length == 0 || !profiles[0].enabled) return;
+        int rank = profiles[0].rank;
+        if (rank == 0) {
+            for (StepProfile p : profiles) p.print();
+        }
+        String csv = Config.text("profileCsv", null);
+        if (csv == null) return;
+        Path path = Path.of(rank == 0 ? csv : withRank(csv, rank));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("engine,rank,phase,count,p50_ns,p99_ns,max_ns,mean_ns,total_ns");
+            for (StepProfile p : profiles) p.rows(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void print() {
+        StringBuilder line = new StringBuilder(engine + " phases (ms, p50/p99/max):");
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram h = histograms[i];
+            if (h.count() == 0) continue;
+            line.append(String.format(" %s %.3f/%.3f/%.3f", phases[i], h.percentile(50) / 1e6,
+                    h.percentile(99) / 1e6, h.max() / 1e6));
+        }
+        System.out.println(line);
+    }
+
+    private void rows(PrintWriter out) {
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram h = histograms[i];
+            out.println(engine + "," + rank + "," + phases[i] + "," + h.count() + "," + h.percentile(50) + ","
+                    + h.percentile(99) + "," + h.max() + "," + h.mean() + "," + h.total());
+        }
+    }
+
+    private static String withRank(String path, int rank) {
+        int dot = path.lastIndexOf('.');
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        if (dot <= slash) return path + "-rank" + rank;
+        return path.substring(0, dot) + "-rank" + rank + path.substring(dot);
+    }
+}
@@ -0,0 +1,339 @@
+package collision;
+
+import java.util.Arrays;
+
+//Spatial decomposition for the headless DistributedGui run (decomposition=strips).
+//The 800 wide box is cut into one vertical strip per rank. A rank only keeps the particles inside its strip,
+//gets copies of the particles within HALO of the strip from its neighbours (point-to-point) and hands
+//particles that cross the strip border to their new owner, so memory and traffic follow the strip, not n.
+//Rows see the same j > i particles (by global id) in the same order as the replicated run.
+public class StripSimulation {
+    private static final int STRIDE = 7; //x, y, dx, dy, mass, charge, id
+    private static final int HALO_STRIDE = 4; //x, y, charge, id, the rows only read these of a halo copy
+    private static final double WIDTH = 800, HEIGHT = 600;
+    private static final double CUTOFF = 200;
+    private static final double CONTACT = 12;
+    private static final double HALO = CUTOFF + CONTACT; //i moves while its row is processed
+    private static final int TAG_COUNT = 1, TAG_DATA = 2;
+
+    private final Communicator comm;
+    private final int rank, size;
+    private final double softening, restitution;
+    private final double stripWidth;
+    private final int reach; //neighbouring strips on each side that can be within HALO
+
+    private double[] owned = new double[64 * STRIDE];
+    private int ownedCount;
+    private double[] halo = new double[64 * HALO_STRIDE];
+    private int haloCount;
+    private final double[][] outgoing;
+    private final int[] outgoingCount;
+    private final double[][] sendCounts; //stay untouched until the isend of the count completes
+    private final double[] countBuf = new double[1];
+
+    //Owned and halo particles sorted by id, slot[k] >= 0 is the owned index, -1 for halo copies
+    private double[] px = new double[0], py = new double[0], pq = new double[0];
+    private int[] slot = new int[0];
+    private long[] keys = new long[0];
+    private int[] neighbours = new int[0];
+    private final CellList cells = new CellList(HALO, Config.real("cellSize", 50.0));
+    private static final int HALO_PHASE = 0, FORCES = 1, MIGRATE = 2, OUTPUT = 3;
+    private final StepProfile profile;
+    private final TimeStep clock = TimeStep.fromConfig();
+    private double dt = 1;
+
+    public StripSimulation(Communicator comm, double softening, double restitution) {
+        this.comm = comm;
+        this.rank = comm.rank();
+        this.size = comm.size();
+        this.softening = softening;
+        this.restitution = restitution;
+        this.stripWidth = WIDTH / size;
+        this.reach = Math.min(size - 1, (int) Math.ceil(HALO / stripWidth));
+        this.outgoing = new double[size][0];
+        this.outgoingCount = new int[size];
+        this.sendCounts = new double[size][1];
+        this.profile = new StepProfile("strips", rank, "halo", "forces", "migrate", "output");
+    }
+
+    public void run(int n, int cycles) {
+        Checkpoint restart = Checkpoint.restart();
+        if (restart != null) {
+            n = restart.count;
+            load(restart);
+            restart.release();
+        } else {
+            generate(n, ParticleGenerator.seed(comm));
+        }
+        if (restart != null) clock.restore(restart.time, restart.acceleration);
+        for (int step = restart != null ? (int) restart.step : 0; step < cycles; step++) {
+            profile.step(step);
+            profile.begin();
+            dt = clock.next(comm, clock.adaptive() ? speed() : 0, 6);
+            exchangeHalo();
+            profile.lap(HALO_PHASE);
+            forces();
+            profile.lap(FORCES);
+            migrate();
+            profile.lap(MIGRATE);
+            int last = clock.reached() ? step + 1 : cycles;
+            if (Checkpoint.due(step + 1, last)) checkpoint(n, step + 1);
+            profile.lap(OUTPUT);
+            if (last == step + 1) break;
+        }
+        profile.report();
+    }
+
+    public TimeStep timeStep() {
+        return clock;
+    }
+
+    //Fastest owned particle
+    private double speed() {
+        double most = 0;
+        for (int i = 0; i < ownedCount; i++) {
+            double dx = owned[i * STRIDE + 2], dy = owned[i * STRIDE + 3];
+            most = Math.max(most, dx * dx + dy * dy);
+        }
+        return Math.sqrt(most);
+    }
+
+    //restart=path: every rank maps the checkpoint and keeps the particles in its own strip, nothing is sent
+    private void load(Checkpoint c) {
+        ownedCount = 0;
+        for (int i = 0; i < c.count; i++) {
+            if (owner(c.get(Checkpoint.X, i)) != rank) continue;
+            owned = ensure(owned, (ownedCount + 1) * STRIDE);
+            int at = ownedCount++ * STRIDE;
+            owned[at] = c.get(Checkpoint.X, i);
+            owned[at + 1] = c.get(Checkpoint.Y, i);
+            owned[at + 2] = c.get(Checkpoint.DX, i);
+            owned[at + 3] = c.get(Checkpoint.DY, i);
+            owned[at + 4] = c.get(Checkpoint.MASS, i);
+            owned[at + 5] = c.get(Checkpoint.CHARGE, i);
+            owned[at + 6] = i;
+        }
+    }
+
+    //checkpoint=path: every rank writes its owned particles at their ids, after migrate() each id has one owner
+    private void checkpoint(int n, long step) {
+        Checkpoint.Writer writer = new Checkpoint.Writer(comm, n, step, 0, WIDTH, HEIGHT, clock.time(),
+                clock.acceleration(comm));
+        for (int i = 0; i < ownedCount; i++) {
+            int at = i * STRIDE;
+            writer.set((int) owned[at + 6], owned[at], owned[at + 1], owned[at + 2], owned[at + 3],
+                    owned[at + 4], owned[at + 5], 6);
+        }
+        writer.finish();
+    }
+
+    //Every rank runs ParticleGenerator over all n from the shared seed, one block per generator thread at a time,
+    //and keeps the particles in its own strip. From the same seed they are those of runOptimizedSimulation.
+    //Nothing is sent and no rank holds more than its strip and the blocks in flight.
+    private void generate(int n, long seed) {
+        ParticleGenerator generator = ParticleGenerator.fromConfig();
+        int blocks = (n + ParticleGenerator.BLOCK - 1) / ParticleGenerator.BLOCK;
+        int group = Math.min(blocks, generator.threads());
+        ParticleStore chunk = new ParticleStore(group * ParticleGenerator.BLOCK);
+        chunk.resize(group * ParticleGenerator.BLOCK);
+        ownedCount = 0;
+        for (int b = 0; b < blocks; b += group) {
+            int first = b * ParticleGenerator.BLOCK;
+            int count = Math.min(n, (b + group) * ParticleGenerator.BLOCK) - first;
+            generator.fill((i, x, y, dx, dy, r, q) -> chunk.set(i - first, x, y, dx, dy, r, q),
+                    n, seed, WIDTH, HEIGHT, b, Math.min(blocks, b + group));
+            for (int k = 0; k < count; k++) {
+                if (owner(chunk.x[k]) != rank) continue;
+                owned = ensure(owned, (ownedCount + 1) * STRIDE);
+                int at = ownedCount++ * STRIDE;
+                owned[at] = chunk.x[k];
+                owned[at + 1] = chunk.y[k];
+                owned[at + 2] = chunk.dx[k];
+                owned[at + 3] = chunk.dy[k];
+                owned[at + 4] = chunk.mass[k];
+                owned[at + 5] = chunk.charge[k];
+                owned[at + 6] = first + k;
+            }
+        }
+    }
+
+    //Copies of the owned particles within HALO of every neighbouring strip
+    private void exchangeHalo() {
+        clearOutgoing();
+        for (int i = 0; i < ownedCount; i++) {
+            double x = owned[i * STRIDE];
+            for (int r = Math.max(0, rank - reach); r <= Math.min(size - 1, rank + reach); r++) {
+                if (r != rank && distanceToStrip(x, r) < HALO) appendHalo(r, i);
+            }
+        }
+        haloCount = 0;
+        halo = exchange(halo, 0, HALO_STRIDE, true);
+    }
+
+    //Particles that left the strip go to the strip they are in now, or as far as the neighbours reach
+    private void migrate() {
+        clearOutgoing();
+        int kept = 0;
+        for (int i = 0; i < ownedCount; i++) {
+            int r = Math.max(rank - reach, Math.min(rank + reach, owner(owned[i * STRIDE])));
+            if (r == rank) {
+                if (kept != i) System.arraycopy(owned, i * STRIDE, owned, kept * STRIDE, STRIDE);
+                kept++;
+            } else {
+                append(r, owned, i);
+            }
+        }
+        ownedCount = kept;
+        owned = exchange(owned, ownedCount, STRIDE, false);
+    }
+
+    //Sends outgoing[r] to every neighbour r and appends what the neighbours sent after the first count
+    //particles of into. All sends are posted before the receives, so no pair of ranks waits on each other.
+    private double[] exchange(double[] into, int count, int stride, boolean toHalo) {
+        int lo = Math.max(0, rank - reach), hi = Math.min(size - 1, rank + reach);
+        Communicator.Pending[] sends = new Communicator.Pending[2 * (hi - lo)];
+        int s = 0;
+        for (int r = lo; r <= hi; r++) {
+            if (r == rank) continue;
+            sendCounts[r][0] = outgoingCount[r];
+            sends[s++] = comm.isend(sendCounts[r], 0, 1, r, TAG_COUNT);
+            sends[s++] = comm.isend(outgoing[r], 0, outgoingCount[r] * stride, r, TAG_DATA);
+        }
+        for (int r = lo; r <= hi; r++) {
+            if (r == rank) continue;
+            comm.recv(countBuf, 0, 1, r, TAG_COUNT);
+            int incoming = (int) countBuf[0];
+            into = ensure(into, (count + incoming) * stride);
+            comm.recv(into, count * stride, incoming * stride, r, TAG_DATA);
+            count += incoming;
+        }
+        for (Communicator.Pending send : sends) send.await();
+        if (toHalo) haloCount = count;
+        else ownedCount = count;
+        return into;
+    }
+
+    //Same row kernel as runOptimizedSimulation, over the owned and halo particles in id order
+    private void forces() {
+        int m = ownedCount + haloCount;
+        if (px.length < m) {
+            int capacity = Math.max(m, px.length + (px.length >> 1));
+            px = new double[capacity];
+            py = new double[capacity];
+            pq = new double[capacity];
+            slot = new int[capacity];
+            keys = new long[capacity];
+            neighbours = new int[capacity];
+        }
+        for (int k = 0; k < m; k++) {
+            double id = k < ownedCount ? owned[k * STRIDE + 6] : halo[(k - ownedCount) * HALO_STRIDE + 3];
+            keys[k] = (long) id << 32 | k;
+        }
+        Arrays.sort(keys, 0, m);
+        for (int k = 0; k < m; k++) {
+            int source = (int) keys[k];
+            if (source < ownedCount) {
+                px[k] = owned[source * STRIDE];
+                py[k] = owned[source * STRIDE + 1];
+                pq[k] = owned[source * STRIDE + 5];
+                slot[k] = source;
+            } else {
+                int at = (source - ownedCount) * HALO_STRIDE;
+                px[k] = halo[at];
+                py[k] = halo[at + 1];
+                pq[k] = halo[at + 2];
+                slot[k] = -1;
+            }
+        }
+        cells.build(px, py, m);
+
+        for (int k = 0; k < m; k++) {
+            if (slot[k] < 0) continue;
+            int at = slot[k] * STRIDE;
+            double xi = px[k];
+            double yi = py[k];
+            double dxi = owned[at + 2];
+            double dyi = owned[at + 3];
+            double mi = owned[at + 4];
+            double qi = pq[k];
+            double mass = mi / dt; //F dt / m as in DistributedGui.forceRows
+            double vx = dxi, vy = dyi;
+
+            int found = cells.higherNeighbours(k, neighbours);
+            for (int f = 0; f < found; f++) {
+                int j = neighbours[f];
+                double dx = px[j] - xi;
+                double dy = py[j] - yi;
+                double distSq = dx * dx + dy * dy + softening;
+                double dist = Math.sqrt(distSq);
+                if (dist > CUTOFF) continue;
+                double invDist3 = 1.0 / (distSq * dist);
+                double force = 200.0 * qi * pq[j] * invDist3;
+                double fx = force * dx / dist;
+                double fy = force * dy / dist;
+                dxi += fx / mass;
+                dyi += fy / mass;
+                if (dist < CONTACT) {
+                    double nx = dx / dist;
+                    double ny = dy / dist;
+                    double overlap = CONTACT - dist;
+                    xi -= nx * (overlap / 2.0);
+                    yi -= ny * (overlap / 2.0);
+                }
+            }
+            if (clock.adaptive()) {
+                double ax = (dxi - vx) / dt, ay = (dyi - vy) / dt;
+                clock.accelerated(Math.sqrt(ax * ax + ay * ay));
+            }
+            xi += dxi * dt;
+            yi += dyi * dt;
+
+            if (xi - 5 <= 0 || xi + 5 >= WIDTH) {
+                dxi = -dxi * restitution;
+                xi = Math.max(5.0, Math.min(WIDTH - 5.0, xi));
+            }
+            if (yi - 5 <= 0 || yi + 5 >= HEIGHT) {
+                dyi = -dyi * restitution;
+                yi = Math.max(5.0, Math.min(HEIGHT - 5.0, yi));
+            }
+            owned[at] = xi;
+            owned[at + 1] = yi;
+            owned[at + 2] = dxi;
+            owned[at + 3] = dyi;
+        }
+    }
+
+    private int owner(double x) {
+        return Math.max(0, Math.min(size - 1, (int) (x / stripWidth)));
+    }
+
+    //The first and last strips reach past the walls
+    private double distanceToStrip(double x, int r) {
+        double lo = r == 0 ? Double.NEGATIVE_INFINITY : r * stripWidth;
+        double hi = r == size - 1 ? Double.POSITIVE_INFINITY : (r + 1) * stripWidth;
+        return Math.max(0, Math.max(lo - x, x - hi));
+    }
+
+    private void clearOutgoing() {
+        Arrays.fill(outgoingCount, 0);
+    }
+
+    private void append(int r, double[] from, int i) {
+        outgoing[r] = ensure(outgoing[r], (outgoingCount[r] + 1) * STRIDE);
+        System.arraycopy(from, i * STRIDE, outgoing[r], outgoingCount[r]++ * STRIDE, STRIDE);
+    }
+
+    private void appendHalo(int r, int i) {
+        outgoing[r] = ensure(outgoing[r], (outgoingCount[r] + 1) * HALO_STRIDE);
+        int at = outgoingCount[r]++ * HALO_STRIDE;
+        outgoing[r][at] = owned[i * STRIDE];
+        outgoing[r][at + 1] = owned[i * STRIDE + 1];
+        outgoing[r][at + 2] = owned[i * STRIDE + 5];
+        outgoing[r][at + 3] = owned[i * STRIDE + 6];
+    }
+
+    private static double[] ensure(double[] buf, int length) {
+        if (buf.length >= length) return buf;
+        return Arrays.copyOf(buf, Math.max(length, buf.length + (buf.length >> 1)));
+    }
+}
@@ -0,0 +1,137 @@
+package collision;
+
+//Global step size dt of an engine and the simulated time (-Dcollision.timestep=fixed|adaptive).
+//Velocities stay in units per unit time: a step moves x by dx * dt and a force changes dx by F * dt / m,
+//so fixed (default) with dt=1 (default) is the old unit step bit for bit.
+//adaptive picks dt before every step so that no particle moves more than courant (default 0.5) times the
+//contact radius: with the fastest speed v and the largest acceleration a, v dt + a dt^2 <= courant * r, clamped
+//to dtMin..dtMax (default 0.01..4). a comes from the force phase of the previous step (accelerated()), which is
+//kept in checkpoints so a restart continues with the same steps. Calm systems take up to dtMax per step,
+//close fast encounters shrink the step until the particles cannot pass through each other.
+public class TimeStep {
+    private final boolean adaptive;
+    private final double fixed;
+    private final double courant;
+    private final double min, max;
+    private double dt;
+    private double time;
+    private long steps; //since the start of the run, not kept in checkpoints
+    private double acceleration; //largest a of the force phase of the current step
+    private final double until = Config.real("until", 0);
+    //maxAll buffers, sized for the communicator on first use
+    private int[] counts, displs;
+    private double[] all;
+    private final double[] pair = new double[2], most = new double[2];
+
+    public TimeStep(boolean adaptive, double fixed, double courant, double min, double max) {
+        this.adaptive = adaptive;
+        this.fixed = fixed;
+        this.courant = courant;
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.dt = fixed;
+    }
+
+    public static TimeStep fromConfig() {
+        String mode = Config.text("timestep", "fixed");
+        if (!mode.equals("fixed") && !mode.equals("adaptive")) {
+            throw new IllegalArgumentException("Unknown timestep " + mode);
+        }
+        return new TimeStep(mode.equals("adaptive"), Config.real("dt", 1.0), Config.real("courant", 0.5),
+                Config.real("dtMin", 0.01), Config.real("dtMax", 4.0));
+    }
+
+    public boolean adaptive() {
+        return adaptive;
+    }
+
+    //dt of the next step from the fastest speed of the particles and the smallest contact radius, and adds it
+    //to the simulated time
+    public double next(double speed, double radius) {
+        if (adaptive) {
+            dt = bound(speed, acceleration, courant * radius);
+            acceleration = 0;
+        }
+        steps++;
+        time += dt;
+        return dt;
+    }
+
+    //Same for a distributed run: every rank passes the speed of its own particles and gets the same dt
+    public double next(Communicator comm, double speed, double radius) {
+        if (!adaptive) return next(0, 0);
+        double[] most = maxAll(comm, speed, acceleration);
+        acceleration = most[1];
+        return next(most[0], radius);
+    }
+
+    //Largest dt with v dt + a dt^2 <= reach, the positive root written so that it also holds for a = 0
+    private double bound(double v, double a, double reach) {
+        double root = v + Math.sqrt(v * v + 4 * a * reach);
+        double step = root > 0 ? 2 * reach / root : max;
+        return Math.max(min, Math.min(max, step));
+    }
+
+    //Reports the acceleration of some particles in the current step, the largest one sets the next dt
+    public void accelerated(double a) {
+        if (a > acceleration) acceleration = a;
+    }
+
+    public double dt() {
+        return dt;
+    }
+
+    //Simulated time after the last step
+    public double time() {
+        return time;
+    }
+
+    public long steps() {
+        return steps;
+    }
+
+    //until=T ends a headless run once the simulated time reaches T, cycles stays the limit on steps
+    public boolean reached() {
+        return until > 0 && time >= until;
+    }
+
+    //Largest acceleration so far in the current step, what a checkpoint after it keeps
+    public double acceleration() {
+        return acceleration;
+    }
+
+    //Largest acceleration of every rank, for the checkpoint header
+    public double acceleration(Communicator comm) {
+        return adaptive ? maxAll(comm, 0, acceleration)[1] : acceleration;
+    }
+
+    //Continues a checkpoint
+    public void restore(double time, double acceleration) {
+        this.time = time;
+        this.acceleration = acceleration;
+    }
+
+    //Largest a and b over all ranks, valid until the next call
+    private double[] maxAll(Communicator comm, double a, double b) {
+        int size = comm.size();
+        if (counts == null || counts.length != size) {
+            counts = new int[size];
+            displs = new int[size];
+            for (int r = 0; r < size; r++) {
+                counts[r] = 2;
+                displs[r] = 2 * r;
+            }
+            all = new double[2 * size];
+        }
+        pair[0] = a;
+        pair[1] = b;
+        comm.allgatherv(pair, 0, 2, all, counts, displs);
+        most[0] = 0;
+        most[1] = 0;
+        for (int r = 0; r < size; r++) {
+            most[0] = Math.max(most[0], all[2 * r]);
+            most[1] = Math.max(most[1], all[2 * r + 1]);
+        }
+        return most;
+    }
+}
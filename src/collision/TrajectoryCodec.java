@@ -0,0 +1,80 @@
+package collision;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//Prediction state of the compressed trajectory encodings, kept the same way by TrajectoryWriter and
+//TrajectoryReader. A value is stored as its raw bits XOR the bits of a prediction: the value of the previous
+//frame (XOR) or the linear extrapolation of the last two frames (DELTA, most particles move in a straight
+//line between two frames). Close predictions share sign, exponent and the high mantissa bits, so the XOR has
+//leading zero bytes that putXor drops. Keyframes predict 0.
+final class TrajectoryCodec {
+    private final boolean delta;
+    private final boolean float32;
+    private final long[][] last, before; //raw bits per field of the last two frames
+    private int history; //frames since the last keyframe
+
+    TrajectoryCodec(int flags, int fields) {
+        this.delta = (flags & TrajectoryWriter.DELTA) != 0;
+        this.float32 = (flags & TrajectoryWriter.FLOAT32) != 0;
+        this.last = new long[fields][0];
+        this.before = new long[fields][0];
+    }
+
+    //Particles added since the last frame start from zero
+    void begin(boolean key, int n) {
+        if (key) history = 0;
+        for (int k = 0; k < last.length; k++) {
+            if (last[k].length < n) {
+                last[k] = Arrays.copyOf(last[k], n);
+                before[k] = Arrays.copyOf(before[k], n);
+            }
+        }
+    }
+
+    long predict(int field, int i) {
+        if (history == 0) return 0;
+        long l = last[field][i];
+        if (!delta || history == 1) return l;
+        long b = before[field][i];
+        if (float32) {
+            return Float.floatToRawIntBits(2f * Float.intBitsToFloat((int) l) - Float.intBitsToFloat((int) b)) & 0xFFFFFFFFL;
+        }
+        return Double.doubleToRawLongBits(2.0 * Double.longBitsToDouble(l) - Double.longBitsToDouble(b));
+    }
+
+    void update(int field, int i, long bits) {
+        before[field][i] = last[field][i];
+        last[field][i] = bits;
+    }
+
+    void end() {
+        history++;
+    }
+
+    //Length and trailing zero bytes in one byte, then the remaining bytes of x, low byte first
+    static void putXor(ByteBuffer out, long x) {
+        if (x == 0) {
+            out.put((byte) 0);
+            return;
+        }
+        int trailing = Long.numberOfTrailingZeros(x) >>> 3;
+        int length = 8 - (Long.numberOfLeadingZeros(x) >>> 3) - trailing;
+        out.put((byte) (length << 4 | trailing));
+        long rest = x >>> (8 * trailing);
+        for (int b = 0; b < length; b++) {
+            out.put((byte) rest);
+            rest >>>= 8;
+        }
+    }
+
+    static long getXor(ByteBuffer in) {
+        int control = in.get() & 0xFF;
+        int length = control >>> 4, trailing = control & 15;
+        long x = 0;
+        for (int b = 0; b < length; b++) {
+            x |= (in.get() & 0xFFL) << (8 * b);
+        }
+        return x << (8 * trailing);
+    }
+}
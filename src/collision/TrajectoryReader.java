@@ -0,0 +1,111 @@
+package collision;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//Reads a TrajectoryWriter file frame by frame, see there for the format.
+//java collision.TrajectoryReader path prints one line per frame with the step, n and the first particle.
+public class TrajectoryReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final int flags;
+    private final int fields;
+    public final int stride;
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final TrajectoryCodec codec;
+    //The frame read by the last next(): step, n and fields rows of n values (x, then y, dx, dy)
+    public long step;
+    public int n;
+    public double[] values = new double[0];
+
+    public TrajectoryReader(Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer header = read(TrajectoryWriter.HEADER);
+            if (header.getInt() != TrajectoryWriter.MAGIC) throw new IllegalArgumentException(path + " is not a trajectory");
+            int version = header.getInt();
+            if (version != TrajectoryWriter.VERSION) {
+                throw new IllegalArgumentException(path + " has trajectory version " + version);
+            }
+            flags = header.getInt();
+            stride = header.getInt();
+            header.getInt(); //keyframe interval, the frames carry their own flag
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fields = velocities() ? 4 : 2;
+        codec = new TrajectoryCodec(flags, fields);
+    }
+
+    public boolean velocities() {
+        return (flags & TrajectoryWriter.VELOCITIES) != 0;
+    }
+
+    //Reads the next frame, false at the end of the file
+    public boolean next() {
+        try {
+            ByteBuffer header = read(TrajectoryWriter.FRAME_HEADER);
+            if (header == null) return false;
+            step = header.getLong();
+            n = header.getInt();
+            boolean key = (header.getInt() & TrajectoryWriter.KEYFRAME) != 0;
+            ByteBuffer payload = read(header.getInt());
+            if (payload == null) throw new IOException("Trajectory ends inside the frame of step " + step);
+            if (values.length < fields * n) values = new double[fields * n];
+            boolean float32 = (flags & TrajectoryWriter.FLOAT32) != 0;
+            boolean xor = (flags & TrajectoryWriter.XOR) != 0;
+            codec.begin(key, n);
+            for (int k = 0; k < fields; k++) {
+                for (int i = 0; i < n; i++) {
+                    long bits;
+                    if (xor) {
+                        bits = codec.predict(k, i) ^ TrajectoryCodec.getXor(payload);
+                        codec.update(k, i, bits);
+                    } else {
+                        bits = float32 ? payload.getInt() & 0xFFFFFFFFL : payload.getLong();
+                    }
+                    values[k * n + i] = float32 ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+                }
+            }
+            codec.end();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //The next count bytes of the file, null at the end
+    private ByteBuffer read(int count) throws IOException {
+        if (in.capacity() < count) in = ByteBuffer.allocate(count).order(ByteOrder.LITTLE_ENDIAN);
+        in.clear().limit(count);
+        while (in.hasRemaining()) {
+            if (channel.read(in) < 0) {
+                if (in.position() == 0) return null;
+                throw new IOException("Trajectory ends inside a frame");
+            }
+        }
+        return in.flip();
+    }
+
+    public static void main(String[] args) {
+        try (TrajectoryReader reader = new TrajectoryReader(Path.of(args[0]))) {
+            while (reader.next()) {
+                System.out.println("step " + reader.step + " n " + reader.n
+                        + (reader.n > 0 ? " x0 " + reader.values[0] + " y0 " + reader.values[reader.n] : ""));
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package collision;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+//Per-step particle state for offline analysis (-Dcollision.trajectory=path, headless runs).
+//record() only copies x, y (and dx, dy with trajectoryVelocities=true) into a preallocated ring of
+//trajectoryBuffer frames (default 8, each fields x n doubles) and a writer thread encodes and writes them,
+//so the step loop never waits for the disk. Only when the disk falls a whole ring behind does record() wait.
+//Every trajectoryStride-th step is kept (default 1). Encoding: trajectoryFloat=true stores float32 instead of
+//float64, trajectoryCompress=delta (default) stores every value XOR its linear extrapolation from the last two
+//frames, xor XOR its previous value (see TrajectoryCodec), both without leading and trailing zero bytes, and
+//none the raw values. Every trajectoryKeyframe-th frame (default 100) is stored against zero so a reader can
+//start there. TrajectoryReader reads the file back.
+//
+//File, little endian. Header: magic, version, flags (VELOCITIES | FLOAT32 | XOR | DELTA), stride, keyframe (int).
+//Frame: step (long), n, flags (KEYFRAME), payload bytes (int), then the payload: n values of x, then y, dx, dy.
+//XOR values: one byte (length << 4 | trailing zero bytes), then the length remaining bytes.
+public class TrajectoryWriter {
+    static final int MAGIC = 0x4E42544A; //"NBTJ"
+    static final int VERSION = 1;
+    static final int HEADER = 20, FRAME_HEADER = 20;
+    static final int VELOCITIES = 1, FLOAT32 = 2, XOR = 4, DELTA = 8;
+    static final int KEYFRAME = 1;
+
+    private final FileChannel channel;
+    private final int flags;
+    private final int fields;
+    private final int stride;
+    private final int keyframe;
+    private final Frame[] ring;
+    private volatile long head; //frames published by record(), written by the simulation thread only
+    private volatile long tail; //frames written, written by the writer thread only
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private final Thread writer;
+    //Writer thread only
+    private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final TrajectoryCodec codec;
+    private long written, bytes;
+    private long stalls; //simulation thread only
+
+    private static class Frame {
+        long step;
+        int n;
+        double[] values = new double[0]; //fields rows of n values
+    }
+
+    //The writer for trajectory=path, null without one
+    public static TrajectoryWriter fromConfig() {
+        String path = Config.text("trajectory", null);
+        if (path == null) return null;
+        int flags = (Config.flag("trajectoryVelocities", false) ? VELOCITIES : 0)
+                | (Config.flag("trajectoryFloat", false) ? FLOAT32 : 0)
+                | compression(Config.text("trajectoryCompress", "delta"));
+        return new TrajectoryWriter(Path.of(path), flags, Config.integer("trajectoryStride", 1),
+                Config.integer("trajectoryKeyframe", 100), Config.integer("trajectoryBuffer", 8));
+    }
+
+    private static int compression(String name) {
+        switch (name) {
+            case "none":
+                return 0;
+            case "xor":
+                return XOR;
+            case "delta":
+                return XOR | DELTA;
+            default:
+                throw new IllegalArgumentException("Unknown trajectoryCompress " + name);
+        }
+    }
+
+    public TrajectoryWriter(Path path, int flags, int stride, int keyframe, int frames) {
+        this.flags = flags;
+        this.fields = (flags & VELOCITIES) != 0 ? 4 : 2;
+        this.stride = Math.max(1, stride);
+        this.keyframe = Math.max(1, keyframe);
+        this.codec = new TrajectoryCodec(flags, fields);
+        this.ring = new Frame[Math.max(2, frames)];
+        for (int i = 0; i < ring.length; i++) ring[i] = new Frame();
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            out.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(this.stride).putInt(this.keyframe);
+            drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writer = new Thread(this::run, "trajectory");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean velocities() {
+        return (flags & VELOCITIES) != 0;
+    }
+
+    //Copies the state after step, if step is a multiple of trajectoryStride
+    public void record(long step, ParticleStore s) {
+        if (step % stride != 0) return;
+        int n = s.size();
+        Frame f = claim(step, n);
+        if (!s.reordered()) {
+            System.arraycopy(s.x, 0, f.values, 0, n);
+            System.arraycopy(s.y, 0, f.values, n, n);
+            if (fields == 4) {
+                System.arraycopy(s.dx, 0, f.values, 2 * n, n);
+                System.arraycopy(s.dy, 0, f.values, 3 * n, n);
+            }
+        } else {
+            //Frames stay in id order, the codec predicts every value from the same particle in earlier frames
+            double[] v = f.values;
+            int[] id = s.id;
+            for (int i = 0; i < n; i++) {
+                v[id[i]] = s.x[i];
+                v[n + id[i]] = s.y[i];
+            }
+            if (fields == 4) {
+                for (int i = 0; i < n; i++) {
+                    v[2 * n + id[i]] = s.dx[i];
+                    v[3 * n + id[i]] = s.dy[i];
+                }
+            }
+        }
+        publish();
+    }
+
+    //Same for rows of x, y, dx, dy with the given stride as DistributedGui keeps them
+    public void record(long step, double[] flat, int rowStride, int n) {
+        record(step, flat, rowStride, n, null);
+    }
+
+    //Row i holds particle ids[i], null when row i is particle i
+    public void record(long step, double[] flat, int rowStride, int n, int[] ids) {
+        if (step % stride != 0) return;
+        Frame f = claim(step, n);
+        double[] v = f.values;
+        for (int i = 0; i < n; i++) {
+            int to = ids == null ? i : ids[i];
+            v[to] = flat[i * rowStride];
+            v[n + to] = flat[i * rowStride + 1];
+        }
+        if (fields == 4) {
+            for (int i = 0; i < n; i++) {
+                int to = ids == null ? i : ids[i];
+                v[2 * n + to] = flat[i * rowStride + 2];
+                v[3 * n + to] = flat[i * rowStride + 3];
+            }
+        }
+        publish();
+    }
+
+    //Waits until every recorded frame is on disk and closes the file
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        check();
+        System.out.println("Trajectory: " + written + " frames, " + bytes / 1024 + " KB, "
+                + stalls + " waits for the disk");
+    }
+
+    //The next free frame, waits only when the writer is a whole ring behind
+    private Frame claim(long step, int n) {
+        check();
+        if (head - tail >= ring.length) {
+            stalls++;
+            while (head - tail >= ring.length) {
+                LockSupport.parkNanos(50_000);
+                check();
+            }
+        }
+        Frame f = ring[(int) (head % ring.length)];
+        if (f.values.length < fields * n) f.values = new double[fields * n];
+        f.step = step;
+        f.n = n;
+        return f;
+    }
+
+    //The volatile write of head hands the frame contents to the writer
+    private void publish() {
+        head = head + 1;
+        LockSupport.unpark(writer);
+    }
+
+    private void check() {
+        if (failure != null) throw new IllegalStateException("Trajectory writer failed", failure);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                if (tail == head) {
+                    if (closed && tail == head) break;
+                    LockSupport.park(this);
+                    continue;
+                }
+                write(ring[(int) (tail % ring.length)]);
+                tail = tail + 1;
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    private void write(Frame f) throws IOException {
+        int n = f.n;
+        boolean key = written % keyframe == 0;
+        int width = (flags & FLOAT32) != 0 ? 4 : 8;
+        ensureOut(FRAME_HEADER + fields * n * (width + 1));
+        out.putLong(f.step).putInt(n).putInt(key ? KEYFRAME : 0);
+        int sizeAt = out.position();
+        out.putInt(0);
+        int payloadStart = out.position();
+        double[] v = f.values;
+        boolean xor = (flags & XOR) != 0;
+        codec.begin(key, n);
+        for (int k = 0; k < fields; k++) {
+            int from = k * n;
+            for (int i = 0; i < n; i++) {
+                long bits = width == 4 ? Float.floatToRawIntBits((float) v[from + i]) & 0xFFFFFFFFL
+                        : Double.doubleToRawLongBits(v[from + i]);
+                if (xor) {
+                    TrajectoryCodec.putXor(out, bits ^ codec.predict(k, i));
+                    codec.update(k, i, bits);
+                } else if (width == 4) {
+                    out.putInt((int) bits);
+                } else {
+                    out.putLong(bits);
+                }
+            }
+        }
+        codec.end();
+        out.putInt(sizeAt, out.position() - payloadStart);
+        drain();
+        written++;
+    }
+
+    private void ensureOut(int capacity) {
+        if (out.capacity() < capacity) {
+            out = ByteBuffer.allocateDirect(Math.max(capacity, out.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) bytes += channel.write(out);
+        out.clear();
+    }
+}
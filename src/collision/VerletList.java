@@ -0,0 +1,187 @@
+package collision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//Verlet neighbour lists (-Dcollision.neighbours=verlet, -Dcollision.skin): for every row i the particles j > i
+//within cutoff + skin, in ascending order, stored flat (neighbours()[start(i)..end(i))). update() rebuilds them
+//from a CellList only once some particle has moved more than skin / 2 since the last build, until then every
+//pair within cutoff is still listed, so the search is paid once every few steps instead of every step.
+//The build is parallel over slices of rows when an executor is given.
+public class VerletList {
+    private final double cutoff;
+    private final double skin;
+    private final CellList cells;
+    private final ExecutorService executor;
+    private final int threads;
+    private final List<Callable<Void>> tasks = new ArrayList<>();
+    private int[] offsets = new int[1]; //row i - from starts at offsets[i - from]
+    private int[] neighbours = new int[0];
+    private int[][] found; //per thread candidates of one row
+    private long[][] marks; //per thread bitmap that puts the candidates in order
+    private int[][] rows; //per thread lists of its slice
+    private int[] rowsUsed;
+    private double[] x0 = new double[0], y0 = new double[0]; //positions of the last build
+    private int builtFor = -1, from, to;
+    private int count;
+    private long builds, updates;
+
+    public VerletList(double cutoff, double skin, ExecutorService executor, int threads) {
+        if (skin < 0) throw new IllegalArgumentException("Skin must not be negative");
+        this.cutoff = cutoff;
+        this.skin = skin;
+        this.cells = new CellList(cutoff + skin, Config.real("cellSize", 50.0));
+        this.executor = executor;
+        this.threads = executor == null ? 1 : Math.max(1, threads);
+        this.found = new int[this.threads][0];
+        this.marks = new long[this.threads][0];
+        this.rows = new int[this.threads][0];
+        this.rowsUsed = new int[this.threads];
+        for (int t = 0; t < this.threads; t++) {
+            final int tid = t;
+            tasks.add(() -> {
+                collect(tid);
+                return null;
+            });
+        }
+    }
+
+    //neighbours=verlet: a list for cutoff with skin=... (default 40), null with the default neighbours=cells
+    public static VerletList fromConfig(double cutoff, ExecutorService executor, int threads) {
+        String mode = Config.text("neighbours", "cells");
+        if (mode.equals("cells")) return null;
+        if (!mode.equals("verlet")) throw new IllegalArgumentException("Unknown neighbours " + mode);
+        return new VerletList(cutoff, Config.real("skin", 40.0), executor, threads);
+    }
+
+    //Lists for every row
+    public boolean update(double[] x, double[] y, int n) {
+        return update(x, y, n, 0, n);
+    }
+
+    //Lists for the rows from..to against all n particles. Rebuilds when n or the rows changed or some of the
+    //n particles moved more than skin / 2, returns true when it did.
+    public boolean update(double[] x, double[] y, int n, int from, int to) {
+        updates++;
+        if (n == builtFor && from == this.from && to == this.to && !moved(x, y, n)) return false;
+        build(x, y, n, from, to);
+        return true;
+    }
+
+    private boolean moved(double[] x, double[] y, int n) {
+        double limit = skin * skin / 4;
+        for (int i = 0; i < n; i++) {
+            double dx = x[i] - x0[i], dy = y[i] - y0[i];
+            if (dx * dx + dy * dy > limit) return true;
+        }
+        return false;
+    }
+
+    private void build(double[] x, double[] y, int n, int from, int to) {
+        builds++;
+        builtFor = n;
+        this.from = from;
+        this.to = to;
+        count = n;
+        if (x0.length < n) {
+            x0 = new double[n];
+            y0 = new double[n];
+        }
+        System.arraycopy(x, 0, x0, 0, n);
+        System.arraycopy(y, 0, y0, 0, n);
+        cells.build(x, y, n);
+        if (offsets.length < to - from + 1) offsets = new int[to - from + 1];
+
+        if (threads == 1 || to - from < 2 * threads) {
+            for (int t = 0; t < threads; t++) collect(t);
+        } else {
+            invoke(tasks);
+        }
+
+        //Slices are in row order, so the thread lists are joined in thread order
+        int total = 0;
+        for (int t = 0; t < threads; t++) total += rowsUsed[t];
+        if (neighbours.length < total) neighbours = new int[total + (total >> 3)];
+        int at = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(rows[t], 0, neighbours, at, rowsUsed[t]);
+            at += rowsUsed[t];
+        }
+        //offsets hold the row lengths until here
+        int sum = 0;
+        for (int r = 0; r < to - from; r++) {
+            int length = offsets[r];
+            offsets[r] = sum;
+            sum += length;
+        }
+        offsets[to - from] = sum;
+    }
+
+    private void collect(int tid) {
+        int rowsTotal = to - from;
+        int first = from + (int) ((long) rowsTotal * tid / threads);
+        int last = from + (int) ((long) rowsTotal * (tid + 1) / threads);
+        if (found[tid].length < count) {
+            found[tid] = new int[count];
+            marks[tid] = new long[(count + 63) >>> 6];
+        }
+        int[] out = found[tid];
+        long[] bits = marks[tid];
+        int[] list = rows[tid];
+        int used = 0;
+        for (int i = first; i < last; i++) {
+            int m = cells.candidates(i, out);
+            if (used + m > list.length) list = Arrays.copyOf(list, Math.max(used + m, 2 * list.length));
+            //Ascending like CellList.higherNeighbours
+            CellList.ascending(out, m, i, bits, list, used);
+            used += m;
+            offsets[i - from] = m;
+        }
+        rows[tid] = list;
+        rowsUsed[tid] = used;
+    }
+
+    //The next update() rebuilds, for when the particles changed slots (MortonOrder)
+    public void invalidate() {
+        builtFor = -1;
+    }
+
+    public int start(int i) {
+        return offsets[i - from];
+    }
+
+    public int end(int i) {
+        return offsets[i - from + 1];
+    }
+
+    public int[] neighbours() {
+        return neighbours;
+    }
+
+    public double cutoff() {
+        return cutoff;
+    }
+
+    //Builds and update() calls so far, builds / updates is the share of steps that searched
+    public long builds() {
+        return builds;
+    }
+
+    public long updates() {
+        return updates;
+    }
+
+    private void invoke(List<Callable<Void>> work) {
+        try {
+            for (Future<Void> f : executor.invokeAll(work)) {
+                f.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}